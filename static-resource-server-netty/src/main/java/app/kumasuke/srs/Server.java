@@ -3,46 +3,110 @@ package app.kumasuke.srs;
 import app.kumasuke.srs.protocol.ProtocolFactory;
 import app.kumasuke.srs.util.Config;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class Server {
     private static final int DEFAULT_SOCKET_BACKLOG = 1024;
 
+    // the buffers of requests and encoded heads are written to sockets, hence they are always direct, and no
+    // arenas are kept for heap buffers, which are only wrapped around the bytes of compressed files
+    private static final ByteBufAllocator ALLOCATOR = new PooledByteBufAllocator(
+            true, 0, PooledByteBufAllocator.defaultNumDirectArena(),
+            PooledByteBufAllocator.defaultPageSize(), PooledByteBufAllocator.defaultMaxOrder(),
+            PooledByteBufAllocator.defaultTinyCacheSize(), PooledByteBufAllocator.defaultSmallCacheSize(),
+            PooledByteBufAllocator.defaultNormalCacheSize(), PooledByteBufAllocator.defaultUseCacheForAllThreads()
+    );
+
     private final Config config;
     private final ProtocolFactory protocolFactory;
+    private final boolean epoll;
     private final EventLoopGroup parentGroup;
     private final EventLoopGroup childGroup;
-
-    private ChannelFuture channelFuture;
+    private final EventExecutorGroup blockingGroup;
+    private final List<Channel> serverChannels = new ArrayList<>();
 
     public Server(Config config, ProtocolFactory protocolFactory) {
         this.config = config;
         this.protocolFactory = protocolFactory;
-        this.parentGroup = new NioEventLoopGroup();
-        this.childGroup = new NioEventLoopGroup();
+        this.epoll = useEpoll(config.getTransport());
+        if (epoll) {
+            // every server channel accepts on an event loop of its own
+            this.parentGroup = new EpollEventLoopGroup(config.getTransportAcceptors());
+            this.childGroup = new EpollEventLoopGroup();
+        } else {
+            this.parentGroup = new NioEventLoopGroup();
+            this.childGroup = new NioEventLoopGroup();
+        }
+        this.blockingGroup = new DefaultEventExecutorGroup(config.getBlockingThreads());
+    }
+
+    private static boolean useEpoll(Config.Transport transport) {
+        switch (transport) {
+            case AUTO:
+                return Epoll.isAvailable();
+            case EPOLL:
+                Epoll.ensureAvailability();
+                return true;
+            default:
+                return false;
+        }
     }
 
     public void start() {
         final var bootstrap = new ServerBootstrap()
                 .group(parentGroup, childGroup)
-                .channel(NioServerSocketChannel.class)
-                .childHandler(protocolFactory.newChannelHandler(config))
+                .childHandler(protocolFactory.newChannelHandler(config, blockingGroup))
                 .option(ChannelOption.SO_BACKLOG, DEFAULT_SOCKET_BACKLOG)
+                .option(ChannelOption.ALLOCATOR, ALLOCATOR)
+                .childOption(ChannelOption.ALLOCATOR, ALLOCATOR)
                 .childOption(ChannelOption.SO_KEEPALIVE, true);
         final int serverPort = config.getServerPort();
-        channelFuture = bootstrap.bind(serverPort).syncUninterruptibly();
+
+        if (epoll) {
+            bootstrap.channel(EpollServerSocketChannel.class)
+                    .option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+
+            final int tcpFastOpen = config.getTransportTcpFastOpen();
+            if (tcpFastOpen > 0) {
+                bootstrap.option(EpollChannelOption.TCP_FASTOPEN, tcpFastOpen);
+            }
+
+            // the kernel spreads the incoming connections over the channels bound to the same port
+            final int acceptors = config.getTransportAcceptors();
+            if (acceptors > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(bootstrap.bind(serverPort).syncUninterruptibly().channel());
+            }
+        } else {
+            bootstrap.channel(NioServerSocketChannel.class);
+            serverChannels.add(bootstrap.bind(serverPort).syncUninterruptibly().channel());
+        }
     }
 
     public void stop() {
         parentGroup.shutdownGracefully();
         childGroup.shutdownGracefully();
+        blockingGroup.shutdownGracefully();
 
         try {
-            channelFuture.channel().closeFuture().sync();
+            for (Channel channel : serverChannels) {
+                channel.closeFuture().sync();
+            }
         } catch (InterruptedException ignore) {
             // ignores
         }
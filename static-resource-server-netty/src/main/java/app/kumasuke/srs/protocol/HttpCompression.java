@@ -0,0 +1,294 @@
+package app.kumasuke.srs.protocol;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Selects the content coding of a file according to the Accept-Encoding header of a request.
+ * <p>
+ * A precompressed '.gz' sibling of the file is preferred for gzip. Otherwise, a file of a text
+ * type is compressed on the fly, and the compressed variant is kept in a size-bounded LRU cache
+ * keyed by the path, the size and the last modified time of the file.
+ * <p>
+ * The attributes of a file, and its sibling once it is looked up, are cached, and looked up
+ * again at most once per revalidate interval, so the changes of a file may not be noticed
+ * until the interval has elapsed.
+ */
+class HttpCompression {
+    private static final String GZIP = HttpHeaderValues.GZIP.toString();
+    private static final String DEFLATE = HttpHeaderValues.DEFLATE.toString();
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String ANY_CODING = "*";
+    private static final int MAX_FILE_COUNT = 8192;
+
+    private final Set<String> compressibleTypes;
+    private final long cacheMaxSize;
+    private final long maxFileSize;
+    private final long revalidateIntervalNanos;
+
+    private final LinkedHashMap<String, byte[]> variants;
+    private long currentSize;
+
+    private final LinkedHashMap<Path, FileAttributes> files;
+
+    HttpCompression(Set<String> compressibleTypes, long cacheMaxSize, long maxFileSize,
+                    Duration revalidateInterval) {
+        this.compressibleTypes = compressibleTypes;
+        this.cacheMaxSize = cacheMaxSize;
+        this.maxFileSize = Math.min(cacheMaxSize, maxFileSize);
+        this.revalidateIntervalNanos = revalidateInterval.toNanos();
+        this.variants = new LinkedHashMap<>(16, 0.75f, true);  // access-order
+        this.currentSize = 0;
+        this.files = new LinkedHashMap<>(16, 0.75f, true);     // access-order
+    }
+
+    /**
+     * Selects the representation of the given file to be sent for the given request.
+     *
+     * @param mimeType the mime type of the file without parameters, may be {@code null}
+     */
+    Representation select(HttpRequest request, Path filePath, String mimeType) throws IOException {
+        final String coding = negotiate(request.headers().getAll(HttpHeaderNames.ACCEPT_ENCODING));
+        final boolean compressible = mimeType != null && compressibleTypes.contains(mimeType);
+
+        final FileAttributes file = getAttributes(filePath);
+        final var identity = new Representation(filePath, file.size, null, null, false);
+
+        // a compressible file varies anyway, the sibling matters only to gzip or to the Vary header
+        final FileAttributes sibling = compressible && !GZIP.equals(coding) ? null : file.gzipSibling();
+        if (!compressible && sibling == null) {
+            return identity;
+        }
+
+        if (coding == null) {
+            return identity.varied();
+        } else if (GZIP.equals(coding) && sibling != null) {
+            return new Representation(sibling.path, sibling.size, GZIP, null, true);
+        } else if (compressible && file.size <= maxFileSize) {
+            final byte[] variant = getOrCompress(file, coding);
+            if (variant.length < file.size) {
+                return new Representation(filePath, variant.length, coding, variant, true);
+            }
+        }
+
+        return identity.varied();
+    }
+
+    private FileAttributes getAttributes(Path filePath) throws IOException {
+        final long now = System.nanoTime();
+        synchronized (this) {
+            final FileAttributes file = files.get(filePath);
+            if (file != null && now - file.lastValidated < revalidateIntervalNanos) {
+                return file;
+            }
+        }
+
+        // the sibling of a file read again is looked up again as well
+        final BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        final var file = new FileAttributes(filePath, attributes, now);
+        synchronized (this) {
+            files.put(filePath, file);
+            if (files.size() > MAX_FILE_COUNT) {
+                final Iterator<FileAttributes> it = files.values().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Returns the content coding preferred by the client, or {@code null} if the client prefers
+     * neither gzip nor deflate.
+     */
+    private static String negotiate(Iterable<String> acceptEncoding) {
+        float gzipQuality = -1, deflateQuality = -1, anyQuality = -1;
+        for (String value : acceptEncoding) {
+            for (String element : value.split(",")) {
+                final int semicolon = element.indexOf(';');
+                final String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+                final float quality = semicolon < 0 ? 1 : parseQuality(element.substring(semicolon + 1));
+
+                if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                    gzipQuality = Math.max(gzipQuality, quality);
+                } else if (DEFLATE.equalsIgnoreCase(coding)) {
+                    deflateQuality = Math.max(deflateQuality, quality);
+                } else if (ANY_CODING.equals(coding)) {
+                    anyQuality = Math.max(anyQuality, quality);
+                }
+            }
+        }
+
+        // the codings which are not listed take the quality of '*'
+        if (gzipQuality < 0) gzipQuality = anyQuality;
+        if (deflateQuality < 0) deflateQuality = anyQuality;
+
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return GZIP;
+        } else if (deflateQuality > 0) {
+            return DEFLATE;
+        } else {
+            return null;
+        }
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private byte[] getOrCompress(FileAttributes file, String coding) throws IOException {
+        final String key = file.path + "\0" + file.size + "\0" + file.lastModified.toMillis() + "\0" + coding;
+        synchronized (this) {
+            final byte[] variant = variants.get(key);
+            if (variant != null) {
+                return variant;
+            }
+        }
+
+        // compresses outside the lock, a file may be compressed twice by concurrent requests
+        final byte[] variant = compress(Files.readAllBytes(file.path), coding);
+        synchronized (this) {
+            final byte[] previous = variants.put(key, variant);
+            if (previous != null) {
+                currentSize -= previous.length;
+            }
+            currentSize += variant.length;
+            evictIfNecessary();
+        }
+
+        return variant;
+    }
+
+    private static byte[] compress(byte[] content, String coding) throws IOException {
+        final var result = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (final OutputStream out = GZIP.equals(coding) ?
+                new GZIPOutputStream(result) : new DeflaterOutputStream(result)) {
+            out.write(content);
+        }
+        return result.toByteArray();
+    }
+
+    private void evictIfNecessary() {
+        final Iterator<Map.Entry<String, byte[]>> it = variants.entrySet().iterator();
+        while (currentSize > cacheMaxSize && it.hasNext()) {
+            final byte[] eldest = it.next().getValue();
+            it.remove();
+            currentSize -= eldest.length;
+        }
+    }
+
+    private static class FileAttributes {
+        private final Path path;
+        private final long size;
+        private final FileTime lastModified;
+        private final long lastValidated;
+
+        private boolean gzipSiblingLookedUp;
+        private FileAttributes gzipSibling;
+
+        private FileAttributes(Path path, BasicFileAttributes attributes, long lastValidated) {
+            this.path = path;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.lastValidated = lastValidated;
+        }
+
+        /**
+         * Returns the precompressed '.gz' sibling of the file, or {@code null} if there is no such
+         * regular file, which is only looked up once.
+         */
+        synchronized FileAttributes gzipSibling() {
+            if (!gzipSiblingLookedUp) {
+                final Path siblingPath = path.resolveSibling(path.getFileName() + GZIP_SUFFIX);
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(siblingPath,
+                                                                                BasicFileAttributes.class);
+                    gzipSibling = attributes.isRegularFile() ?
+                            new FileAttributes(siblingPath, attributes, lastValidated) : null;
+                } catch (IOException e) {
+                    gzipSibling = null;     // there is no such file in most cases
+                }
+                gzipSiblingLookedUp = true;
+            }
+            return gzipSibling;
+        }
+    }
+
+    static class Representation {
+        private final Path path;
+        private final long size;
+        private final String contentEncoding;
+        private final byte[] content;
+        private final boolean varied;
+
+        private Representation(Path path, long size, String contentEncoding, byte[] content, boolean varied) {
+            this.path = path;
+            this.size = size;
+            this.contentEncoding = contentEncoding;
+            this.content = content;
+            this.varied = varied;
+        }
+
+        private Representation varied() {
+            return new Representation(path, size, contentEncoding, content, true);
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * Returns the content coding of this representation, or {@code null} if it is not encoded.
+         */
+        String contentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Checks whether this representation depends on the Accept-Encoding header of the request.
+         */
+        boolean isVaried() {
+            return varied;
+        }
+
+        /**
+         * Returns the file whose bytes are this representation, unless it is held in memory.
+         */
+        Path path() {
+            return path;
+        }
+
+        /**
+         * Returns the bytes of this representation if it is held in memory, otherwise {@code null}.
+         */
+        byte[] content() {
+            return content;
+        }
+    }
+}
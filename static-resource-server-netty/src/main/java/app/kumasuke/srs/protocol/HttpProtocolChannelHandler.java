@@ -3,22 +3,33 @@ package app.kumasuke.srs.protocol;
 import app.kumasuke.srs.util.Config;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 class HttpProtocolChannelHandler extends ChannelInitializer<SocketChannel> {
-    private static final int _2_MIB = 2 * 1024 * 1028;
-
     private final Config config;
+    private final EventExecutorGroup blockingGroup;
+    private final HttpCompression compression;
 
-    HttpProtocolChannelHandler(Config config) {
+    HttpProtocolChannelHandler(Config config, EventExecutorGroup blockingGroup) {
         this.config = config;
+        this.blockingGroup = blockingGroup;
+        // the compressed variants are cached for all the channels
+        this.compression = new HttpCompression(HttpStaticResourceProcessor.TEXT_FILE_MIMETYPES,
+                                               config.getCompressionCacheMaxSize(),
+                                               config.getCompressionMaxFileSize(),
+                                               config.getFileCacheRevalidateInterval());
     }
 
     @Override
     protected void initChannel(SocketChannel ch) {
         ch.pipeline().addLast("httpServerCodec", new HttpServerCodec())
-                .addLast("HttpObjectAggregator", new HttpObjectAggregator(_2_MIB))
-                .addLast("HttpStaticResourceProcessor", new HttpStaticResourceProcessor(config));
+                .addLast("HttpRequestBodyDiscarder", new HttpRequestBodyDiscarder(config))
+                .addLast("ChunkedWriteHandler", new ChunkedWriteHandler())
+                // looks up and reads files off the event loop, a slow disk only holds up the channels sharing
+                // the executor, which runs all the events of a channel in order
+                .addLast(blockingGroup, "HttpStaticResourceProcessor",
+                         new HttpStaticResourceProcessor(config, compression));
     }
 }
@@ -2,10 +2,11 @@ package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.util.Config;
 import io.netty.channel.ChannelHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 public class HttpProtocolFactory implements ProtocolFactory {
     @Override
-    public ChannelHandler newChannelHandler(Config config) {
-        return new HttpProtocolChannelHandler(config);
+    public ChannelHandler newChannelHandler(Config config, EventExecutorGroup blockingGroup) {
+        return new HttpProtocolChannelHandler(config, blockingGroup);
     }
 }
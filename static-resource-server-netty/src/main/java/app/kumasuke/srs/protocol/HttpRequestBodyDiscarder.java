@@ -0,0 +1,98 @@
+package app.kumasuke.srs.protocol;
+
+import app.kumasuke.srs.util.Config;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Passes the heads of requests on as soon as they are decoded, and discards their bodies instead of aggregating
+ * them, as none of the requests served needs one. A body larger than the limit ends the connection.
+ * <p>
+ * A request is rejected by passing a {@link Rejection} on to the processor, which answers it after the requests
+ * before it, since their responses may still be being written.
+ */
+class HttpRequestBodyDiscarder extends ChannelInboundHandlerAdapter {
+    private final long maxBodySize;
+
+    private long bodySize;
+    private boolean rejected;
+
+    HttpRequestBodyDiscarder(Config config) {
+        this.maxBodySize = config.getMaxRequestBodySize();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (rejected) {
+            // the connection is to be closed, nothing else is processed
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        // a request failed to be decoded is a full request with an empty body
+        if (msg instanceof HttpRequest) {
+            final HttpRequest request = (HttpRequest) msg;
+            bodySize = 0;
+
+            if (request.decoderResult().isFailure()) {
+                reject(ctx, request, HttpResponseStatus.BAD_REQUEST);
+            } else if (HttpUtil.getContentLength(request, 0L) > maxBodySize) {
+                reject(ctx, request, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+            } else {
+                if (HttpUtil.is100ContinueExpected(request)) {
+                    // the body is never asked for, the client might send it or not after the response
+                    HttpUtil.setKeepAlive(request, false);
+                }
+                ctx.fireChannelRead(request);
+            }
+        }
+
+        if (msg instanceof HttpContent) {
+            final HttpContent content = (HttpContent) msg;
+            bodySize += content.content().readableBytes();
+            content.release();
+
+            // the request has been passed on, the connection is closed after its response without another one
+            if (!rejected && bodySize > maxBodySize) {
+                reject(ctx, null, null);
+            }
+        } else if (!(msg instanceof HttpRequest)) {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private void reject(ChannelHandlerContext ctx, HttpRequest request, HttpResponseStatus status) {
+        // keeps reading and discarding, the connection would be reset if it were closed with unread bytes
+        rejected = true;
+        ctx.fireChannelRead(new Rejection(request, status));
+    }
+
+    /**
+     * A request which is rejected before being processed, after which the connection is closed.
+     */
+    static class Rejection {
+        private final HttpRequest request;
+        private final HttpResponseStatus status;
+
+        private Rejection(HttpRequest request, HttpResponseStatus status) {
+            this.request = request;
+            this.status = status;
+        }
+
+        /**
+         * Returns the rejected request, or {@code null} if the connection is closed without a response.
+         */
+        HttpRequest request() {
+            return request;
+        }
+
+        HttpResponseStatus status() {
+            return status;
+        }
+    }
+}
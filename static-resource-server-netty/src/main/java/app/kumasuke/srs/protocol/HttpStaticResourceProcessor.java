@@ -2,101 +2,177 @@ package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.util.Config;
 import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.AsciiString;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.Set;
 
 class HttpStaticResourceProcessor extends ChannelInboundHandlerAdapter {
-    private static final String ALLOWED_HTTP_METHODS = "OPTIONS, GET, HEAD";
+    // the values of fixed headers are encoded once, so are the empty bodies shared by all the responses
+    private static final AsciiString ALLOWED_HTTP_METHODS = AsciiString.cached("OPTIONS, GET, HEAD");
     private static final Set<String> DEFAULT_WELCOME_FILES = Set.of("index.html", "index.htm");
-    private static final Set<String> TEXT_FILE_MIMETYPES =
+    static final Set<String> TEXT_FILE_MIMETYPES =
             Set.of("text/css", "text/html", "text/javascript", "application/javascript", "text/plain");
-    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    private static final int CHUNK_SIZE = 64 * 1024;
 
     private final Config config;
+    private final AsciiString serverName;
+    private final HttpCompression compression;
 
-    HttpStaticResourceProcessor(Config config) {
+    HttpStaticResourceProcessor(Config config, HttpCompression compression) {
         this.config = config;
+        this.serverName = AsciiString.of(config.getServerName());
+        this.compression = compression;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (msg instanceof FullHttpRequest) {
-            final FullHttpRequest request = (FullHttpRequest) msg;
-            final HttpMethod method = request.method();
-            final String requestUri = request.uri();
+        if (msg instanceof HttpRequest) {
+            final HttpRequest request = (HttpRequest) msg;
             final HttpVersion version = request.protocolVersion();
 
-            FullHttpResponse response;
             try {
-                response = generateResponse(method, requestUri, version);
+                processRequest(ctx, request);
             } catch (InvalidPathException | IOException e) {
                 throw new ObjectCarriedException(e, version);
             }
-
-            ctx.writeAndFlush(response);
+        } else if (msg instanceof HttpRequestBodyDiscarder.Rejection) {
+            reject(ctx, (HttpRequestBodyDiscarder.Rejection) msg);
         } else {
             super.channelRead(ctx, msg);
         }
     }
 
-    private FullHttpResponse generateResponse(HttpMethod method, String requestUri, HttpVersion version)
-            throws IOException {
-        FullHttpResponse response;
+    /**
+     * Answers a rejected request if there is one, and closes the connection, after the responses
+     * to the earlier requests are written.
+     */
+    private void reject(ChannelHandlerContext ctx, HttpRequestBodyDiscarder.Rejection rejection) {
+        final HttpRequest request = rejection.request();
+
+        final ChannelFuture lastWriteFuture;
+        if (request == null) {
+            lastWriteFuture = ctx.writeAndFlush(Unpooled.EMPTY_BUFFER);
+        } else {
+            final var response = new DefaultFullHttpResponse(
+                    request.protocolVersion(),
+                    rejection.status(),
+                    Unpooled.EMPTY_BUFFER
+            );
+            putCommonHeaders(request, response);
+            HttpUtil.setKeepAlive(response, false);
+            lastWriteFuture = ctx.writeAndFlush(response);
+        }
+        lastWriteFuture.addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void processRequest(ChannelHandlerContext ctx, HttpRequest request) throws IOException {
+        final HttpMethod method = request.method();
+        final String requestUri = request.uri();
+        final HttpVersion version = request.protocolVersion();
+
         if (HttpMethod.GET.equals(method) ||
                 HttpMethod.HEAD.equals(method)) {
             final Path filePath = getLocalFilePath(requestUri);
             if (filePath == null) {
-                response = new DefaultFullHttpResponse(
+                final var response = new DefaultFullHttpResponse(
                         version,
                         HttpResponseStatus.NOT_FOUND,
-                        Unpooled.copiedBuffer(EMPTY_BYTE_ARRAY)
+                        Unpooled.EMPTY_BUFFER
                 );
+                putCommonHeaders(request, response);
+                finishResponse(request, ctx.writeAndFlush(response));
             } else {
-                final boolean needBody = HttpMethod.GET.equals(method);
-                final var body = needBody ? Files.readAllBytes(filePath) : EMPTY_BYTE_ARRAY;
-
-                response = new DefaultFullHttpResponse(
-                        version,
-                        HttpResponseStatus.OK,
-                        Unpooled.copiedBuffer(body)
-                );
-                putGETHeaders(response, filePath, needBody);
+                processFile(ctx, request, filePath);
             }
         } else if (HttpMethod.OPTIONS.equals(method)) {
-            response = new DefaultFullHttpResponse(
+            final var response = new DefaultFullHttpResponse(
                     version,
                     HttpResponseStatus.OK,
-                    Unpooled.copiedBuffer(EMPTY_BYTE_ARRAY)
+                    Unpooled.EMPTY_BUFFER
             );
             putOPTIONSHeader(response);
+            putCommonHeaders(request, response);
+            finishResponse(request, ctx.writeAndFlush(response));
         } else {
-            response = new DefaultFullHttpResponse(
+            final var response = new DefaultFullHttpResponse(
                     version,
                     HttpResponseStatus.OK,
-                    Unpooled.copiedBuffer(EMPTY_BYTE_ARRAY)
+                    Unpooled.EMPTY_BUFFER
             );
+            putCommonHeaders(request, response);
+            finishResponse(request, ctx.writeAndFlush(response));
         }
-        putCommonHeaders(response);
+    }
+
+    /**
+     * Writes the head of the response first, then streams the file after it, so the file is never
+     * held on heap as a whole: by a zero-copy {@link FileRegion} on plain connections, or in chunks
+     * where the bytes have to pass through the pipeline, as they do to be encrypted.
+     * <p>
+     * The file is opened before the head is written, so a file which cannot be opened is still
+     * answered with an error. Once the head is written, a failure closes the connection instead.
+     */
+    private void processFile(ChannelHandlerContext ctx, HttpRequest request, Path filePath) throws IOException {
+        final String mimeType = Files.probeContentType(filePath);
+        final HttpCompression.Representation representation = compression.select(request, filePath, mimeType);
+
+        final boolean fromFile = !HttpMethod.HEAD.equals(request.method()) && representation.content() == null;
+        final FileChannel fileChannel = fromFile ?
+                FileChannel.open(representation.path(), StandardOpenOption.READ) : null;
+
+        final var response = new DefaultHttpResponse(request.protocolVersion(), HttpResponseStatus.OK);
+        putGETHeaders(response, mimeType, representation);
+        putCommonHeaders(request, response);
+        ctx.write(response);
+
+        final ChannelFuture lastWriteFuture;
+        if (HttpMethod.HEAD.equals(request.method())) {
+            lastWriteFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else if (!fromFile) {
+            final var content = new DefaultLastHttpContent(Unpooled.wrappedBuffer(representation.content()));
+            lastWriteFuture = ctx.writeAndFlush(content);
+        } else if (ctx.pipeline().get(SslHandler.class) == null) {
+            // the region closes the file once it is transferred or fails to be
+            ctx.write(new DefaultFileRegion(fileChannel, 0, representation.size()));
+            lastWriteFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            // writes the last content by itself at the end of the file
+            final var chunkedFile = new ChunkedNioFile(fileChannel, CHUNK_SIZE);
+            lastWriteFuture = ctx.writeAndFlush(new HttpChunkedInput(chunkedFile));
+        }
+        lastWriteFuture.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        finishResponse(request, lastWriteFuture);
+    }
 
-        return response;
+    private void finishResponse(HttpRequest request, ChannelFuture lastWriteFuture) {
+        if (!HttpUtil.isKeepAlive(request)) {
+            lastWriteFuture.addListener(ChannelFutureListener.CLOSE);
+        }
     }
 
-    private void putGETHeaders(FullHttpResponse response,
-                               Path filePath, boolean withContentLength) throws IOException {
-        if (withContentLength) {
-            final String contentLength = Long.toString(Files.size(filePath));
-            response.headers().add(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+    private void putGETHeaders(HttpResponse response, String contentType,
+                               HttpCompression.Representation representation) {
+        final String contentLength = Long.toString(representation.size());
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+
+        if (representation.contentEncoding() != null) {
+            response.headers().add(HttpHeaderNames.CONTENT_ENCODING, representation.contentEncoding());
+        }
+        if (representation.isVaried()) {
+            response.headers().add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
         }
 
-        String contentType = Files.probeContentType(filePath);
         if (contentType != null) {
             if (TEXT_FILE_MIMETYPES.contains(contentType)) {
                 contentType += "; charset=" + config.getServerDefaultCharset();
@@ -109,17 +185,19 @@ class HttpStaticResourceProcessor extends ChannelInboundHandlerAdapter {
         response.headers().add(HttpHeaderNames.ALLOW, ALLOWED_HTTP_METHODS);
     }
 
-    private void putCommonHeaders(FullHttpResponse response) {
+    private void putCommonHeaders(HttpRequest request, HttpResponse response) {
         final HttpHeaders headers = response.headers();
 
         headers.add(HttpHeaderNames.DATE, new Date());
 
-        final var serverName = config.getServerName();
         headers.add(HttpHeaderNames.SERVER, serverName);
 
         if (!headers.contains(HttpHeaderNames.CONTENT_LENGTH)) {
-            headers.add(HttpHeaderNames.CONTENT_LENGTH, "0");
+            headers.add(HttpHeaderNames.CONTENT_LENGTH, HttpHeaderValues.ZERO);
         }
+
+        // tells HTTP/1.0 clients the connection is kept, and HTTP/1.1 clients it is not
+        HttpUtil.setKeepAlive(response, HttpUtil.isKeepAlive(request));
     }
 
     private Path getLocalFilePath(String requestUri) {
@@ -157,14 +235,14 @@ class HttpStaticResourceProcessor extends ChannelInboundHandlerAdapter {
                 response = new DefaultFullHttpResponse(
                         version,
                         HttpResponseStatus.BAD_REQUEST,
-                        Unpooled.copiedBuffer(EMPTY_BYTE_ARRAY)
+                        Unpooled.EMPTY_BUFFER
                 );
             } else if (causeOfCause instanceof IOException) {
                 final var version = (HttpVersion) value;
                 response = new DefaultFullHttpResponse(
                         version,
                         HttpResponseStatus.INTERNAL_SERVER_ERROR,
-                        Unpooled.copiedBuffer(EMPTY_BYTE_ARRAY)
+                        Unpooled.EMPTY_BUFFER
                 );
             }
 
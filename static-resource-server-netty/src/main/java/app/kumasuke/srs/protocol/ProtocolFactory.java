@@ -2,7 +2,12 @@ package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.util.Config;
 import io.netty.channel.ChannelHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 public interface ProtocolFactory {
-    ChannelHandler newChannelHandler(Config config);
+    /**
+     * Creates the handler initializing accepted channels, whose handlers doing blocking work, such as file I/O,
+     * are supposed to run on the given blocking group instead of the event loops.
+     */
+    ChannelHandler newChannelHandler(Config config, EventExecutorGroup blockingGroup);
 }
@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 public class Config {
@@ -13,6 +14,22 @@ public class Config {
     public static final String CONF_DEFAULT_CHARSET = "server.defaultCharset";
     public static final String CONF_SERVER_HTTP_ROOT_DIRECTORY = "server.http.rootDirectory";
     public static final String CONF_SERVER_NAME = "server.name";
+    public static final String CONF_COMPRESSION_CACHE_MAX_SIZE = "server.http.compression.cacheMaxSize";
+    public static final String CONF_COMPRESSION_MAX_FILE_SIZE = "server.http.compression.maxFileSize";
+    public static final String CONF_FILE_CACHE_REVALIDATE_INTERVAL = "server.http.fileCache.revalidateInterval";
+    public static final String CONF_MAX_REQUEST_BODY_SIZE = "server.http.maxRequestBodySize";
+    public static final String CONF_TRANSPORT = "server.transport";
+    public static final String CONF_TRANSPORT_ACCEPTORS = "server.transport.acceptors";
+    public static final String CONF_TRANSPORT_TCP_FAST_OPEN = "server.transport.tcpFastOpen";
+    public static final String CONF_BLOCKING_THREADS = "server.blockingThreads";
+
+    private static final long DEFAULT_COMPRESSION_CACHE_MAX_SIZE = 16 * 1024 * 1024;   // 16 MiB
+    private static final long DEFAULT_COMPRESSION_MAX_FILE_SIZE = 1024 * 1024;         // 1 MiB
+    private static final long DEFAULT_FILE_CACHE_REVALIDATE_INTERVAL = 1000;           // 1 second
+    private static final long DEFAULT_MAX_REQUEST_BODY_SIZE = 8 * 1024;                // 8 KiB
+    private static final int DEFAULT_TRANSPORT_ACCEPTORS = 1;
+    private static final long DEFAULT_TRANSPORT_TCP_FAST_OPEN = 256;
+    private static final int DEFAULT_BLOCKING_THREADS = 16;
 
     private final Map<String, Object> config;
 
@@ -27,6 +44,11 @@ public class Config {
         loadServerDefaultCharset(config, properties);
         loadServerRootDirectory(config, properties);
         loadServerName(config, properties);
+        loadCompression(config, properties);
+        loadFileCache(config, properties);
+        loadMaxRequestBodySize(config, properties);
+        loadTransport(config, properties);
+        loadBlockingThreads(config, properties);
 
         return Collections.unmodifiableMap(config);
     }
@@ -71,6 +93,108 @@ public class Config {
         }
     }
 
+    private void loadCompression(Map<String, Object> config, Properties properties) {
+        // files are no longer compressed on the fly when the max size is 0, precompressed files are still served
+        final long cacheMaxSize = parseNonNegativeLong(properties, CONF_COMPRESSION_CACHE_MAX_SIZE,
+                                                       DEFAULT_COMPRESSION_CACHE_MAX_SIZE);
+        config.put(CONF_COMPRESSION_CACHE_MAX_SIZE, cacheMaxSize);
+
+        final long maxFileSize = parseNonNegativeLong(properties, CONF_COMPRESSION_MAX_FILE_SIZE,
+                                                      DEFAULT_COMPRESSION_MAX_FILE_SIZE);
+        config.put(CONF_COMPRESSION_MAX_FILE_SIZE, maxFileSize);
+    }
+
+    private void loadFileCache(Map<String, Object> config, Properties properties) {
+        // the attributes of files and their gzip siblings are looked up again once the interval has elapsed
+        final long revalidateInterval = parseNonNegativeLong(properties, CONF_FILE_CACHE_REVALIDATE_INTERVAL,
+                                                             DEFAULT_FILE_CACHE_REVALIDATE_INTERVAL);
+        config.put(CONF_FILE_CACHE_REVALIDATE_INTERVAL, Duration.ofMillis(revalidateInterval));
+    }
+
+    private void loadMaxRequestBodySize(Map<String, Object> config, Properties properties) {
+        // the bodies of requests are discarded, this only bounds how much is read for nothing
+        final long maxRequestBodySize = parseNonNegativeLong(properties, CONF_MAX_REQUEST_BODY_SIZE,
+                                                             DEFAULT_MAX_REQUEST_BODY_SIZE);
+        config.put(CONF_MAX_REQUEST_BODY_SIZE, maxRequestBodySize);
+    }
+
+    private void loadTransport(Map<String, Object> config, Properties properties) {
+        final Transport transport = parseEnum(properties, CONF_TRANSPORT, Transport.class, Transport.AUTO);
+        config.put(CONF_TRANSPORT, transport);
+
+        // the server channels bound to the port with SO_REUSEPORT, only the epoll transport binds more than one
+        final int acceptors = parsePositiveInt(properties, CONF_TRANSPORT_ACCEPTORS, DEFAULT_TRANSPORT_ACCEPTORS);
+        config.put(CONF_TRANSPORT_ACCEPTORS, acceptors);
+
+        // the queue of pending TCP Fast Open requests on the epoll transport, which is disabled when it is 0
+        final long tcpFastOpen = parseNonNegativeLong(properties, CONF_TRANSPORT_TCP_FAST_OPEN,
+                                                      DEFAULT_TRANSPORT_TCP_FAST_OPEN);
+        if (tcpFastOpen > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("'" + CONF_TRANSPORT_TCP_FAST_OPEN + "' is too large");
+        }
+        config.put(CONF_TRANSPORT_TCP_FAST_OPEN, (int) tcpFastOpen);
+    }
+
+    private void loadBlockingThreads(Map<String, Object> config, Properties properties) {
+        // the threads doing file I/O for the channels, which may wait for the disk
+        final int blockingThreads = parsePositiveInt(properties, CONF_BLOCKING_THREADS, DEFAULT_BLOCKING_THREADS);
+        config.put(CONF_BLOCKING_THREADS, blockingThreads);
+    }
+
+    private <E extends Enum<E>> E parseEnum(Properties properties, String name, Class<E> enumClass,
+                                            E defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Enum.valueOf(enumClass, value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+    }
+
+    private int parsePositiveInt(Properties properties, String name, int defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final int result;
+        try {
+            result = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+
+        if (result <= 0) {
+            throw new IllegalArgumentException("'" + name + "' must be positive");
+        } else {
+            return result;
+        }
+    }
+
+    private long parseNonNegativeLong(Properties properties, String name, long defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final long result;
+        try {
+            result = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+
+        if (result < 0) {
+            throw new IllegalArgumentException("'" + name + "' cannot be negative");
+        } else {
+            return result;
+        }
+    }
+
     public int getServerPort() {
         return (int) config.get(CONF_SERVER_PORT);
     }
@@ -93,6 +217,38 @@ public class Config {
         return serverName.substring(0, endPos);
     }
 
+    public long getCompressionCacheMaxSize() {
+        return (long) config.get(CONF_COMPRESSION_CACHE_MAX_SIZE);
+    }
+
+    public long getCompressionMaxFileSize() {
+        return (long) config.get(CONF_COMPRESSION_MAX_FILE_SIZE);
+    }
+
+    public Duration getFileCacheRevalidateInterval() {
+        return (Duration) config.get(CONF_FILE_CACHE_REVALIDATE_INTERVAL);
+    }
+
+    public long getMaxRequestBodySize() {
+        return (long) config.get(CONF_MAX_REQUEST_BODY_SIZE);
+    }
+
+    public Transport getTransport() {
+        return (Transport) config.get(CONF_TRANSPORT);
+    }
+
+    public int getTransportAcceptors() {
+        return (int) config.get(CONF_TRANSPORT_ACCEPTORS);
+    }
+
+    public int getTransportTcpFastOpen() {
+        return (int) config.get(CONF_TRANSPORT_TCP_FAST_OPEN);
+    }
+
+    public int getBlockingThreads() {
+        return (int) config.get(CONF_BLOCKING_THREADS);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -105,4 +261,19 @@ public class Config {
     public int hashCode() {
         return Objects.hash(config);
     }
+
+    public enum Transport {
+        /**
+         * Uses the native epoll transport where it is available, otherwise the NIO transport.
+         */
+        AUTO,
+        /**
+         * Uses the native epoll transport, which is only available on Linux.
+         */
+        EPOLL,
+        /**
+         * Uses the NIO transport of the JDK.
+         */
+        NIO
+    }
 }
@@ -0,0 +1,201 @@
+package app.kumasuke.srs;
+
+import app.kumasuke.srs.protocol.HttpProtocolFactory;
+import app.kumasuke.srs.util.Config;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures serving a static file end to end over loopback, with clients sending one request
+ * after another on their own keep-alive connections, or on a new connection for every request.
+ * Each benchmark thread is a client, hence the methods differ in the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class ServerBenchmark {
+    private static final String FILE_NAME = "file.bin";
+
+    @Benchmark
+    @Threads(1)
+    public int keepAlive1(ServerState server, ClientState client) throws IOException {
+        return client.get(server);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int keepAlive8(ServerState server, ClientState client) throws IOException {
+        return client.get(server);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int keepAlive64(ServerState server, ClientState client) throws IOException {
+        return client.get(server);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int newConnection8(ServerState server, ClientState client) throws IOException {
+        client.reconnect(server);
+        return client.get(server);
+    }
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+        @Param({"1024", "65536", "1048576"})
+        public int fileSize;
+
+        private Path rootDirectory;
+        private Server server;
+        private int port;
+
+        @Setup
+        public void setUp() throws IOException {
+            rootDirectory = Files.createTempDirectory("srs-benchmark");
+            final var content = new byte[fileSize];
+            for (int i = 0; i < fileSize; i++) {
+                content[i] = (byte) i;
+            }
+            Files.write(rootDirectory.resolve(FILE_NAME), content);
+
+            port = findFreePort();
+            final var properties = new Properties();
+            properties.put(Config.CONF_SERVER_PORT, Integer.toString(port));
+            properties.put(Config.CONF_SERVER_NAME, "K9MAServer/1.0");
+            properties.put(Config.CONF_DEFAULT_CHARSET, "UTF-8");
+            properties.put(Config.CONF_SERVER_HTTP_ROOT_DIRECTORY, rootDirectory.toString());
+            properties.put(Config.CONF_METRICS_JMX_ENABLED, "false");
+
+            server = new Server(new Config(properties), new HttpProtocolFactory());
+            server.start();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            server.stop();
+
+            try (final Stream<Path> paths = Files.walk(rootDirectory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+
+        private static int findFreePort() throws IOException {
+            try (final var socket = new ServerSocket(0)) {
+                return socket.getLocalPort();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+        private static final byte[] REQUEST = ("GET /" + FILE_NAME + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Accept-Encoding: identity\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+        private final ByteBuffer request = ByteBuffer.wrap(REQUEST);
+        private final ByteBuffer response = ByteBuffer.allocateDirect(64 * 1024);
+        private SocketChannel channel;
+
+        @Setup
+        public void setUp(ServerState server) throws IOException {
+            connect(server);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            channel.close();
+        }
+
+        void reconnect(ServerState server) throws IOException {
+            channel.close();
+            connect(server);
+        }
+
+        private void connect(ServerState server) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress("localhost", server.port));
+        }
+
+        /**
+         * Sends a request and reads its response completely, returns the length of the body.
+         */
+        int get(ServerState server) throws IOException {
+            request.rewind();
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+
+            // reads until the end of the head, which fits in the buffer
+            response.clear();
+            int endOfHead;
+            while ((endOfHead = findEndOfHead()) < 0) {
+                if (channel.read(response) < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+            }
+
+            final int contentLength = parseContentLength(endOfHead);
+            if (contentLength != server.fileSize) {
+                throw new IOException("Unexpected content length: " + contentLength);
+            }
+
+            // discards the body
+            long remaining = contentLength - (response.position() - endOfHead);
+            while (remaining > 0) {
+                response.clear();
+                final int n = channel.read(response);
+                if (n < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                remaining -= n;
+            }
+            return contentLength;
+        }
+
+        private int findEndOfHead() {
+            for (int i = 3; i < response.position(); i++) {
+                if (response.get(i - 3) == '\r' && response.get(i - 2) == '\n' &&
+                        response.get(i - 1) == '\r' && response.get(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private int parseContentLength(int endOfHead) throws IOException {
+            outer:
+            for (int i = 0; i + CONTENT_LENGTH.length < endOfHead; i++) {
+                for (int j = 0; j < CONTENT_LENGTH.length; j++) {
+                    if (response.get(i + j) != CONTENT_LENGTH[j]) {
+                        continue outer;
+                    }
+                }
+
+                int result = 0;
+                for (int k = i + CONTENT_LENGTH.length; response.get(k) != '\r'; k++) {
+                    result = result * 10 + (response.get(k) - '0');
+                }
+                return result;
+            }
+            throw new IOException("No Content-Length in response");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package app.kumasuke.srs.protocol;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing requests with the header sets sent by typical clients, as a whole, pipelined
+ * several in a buffer, and arriving in small fragments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpRequestParserBenchmark {
+    private static final int PIPELINED_REQUEST_COUNT = 16;
+    private static final int FRAGMENT_SIZE = 64;
+
+    @Param({"MINIMAL", "CURL", "BROWSER"})
+    public RequestKind kind;
+
+    private HttpRequestParser parser;
+    private ByteBuffer request;
+    private ByteBuffer pipelinedRequests;
+    private ByteBuffer fragmentBuffer;
+
+    @Setup
+    public void setUp() {
+        parser = new HttpRequestParser();
+
+        final byte[] bytes = kind.text.getBytes(StandardCharsets.ISO_8859_1);
+        request = ByteBuffer.allocateDirect(bytes.length);
+        request.put(bytes).flip();
+
+        pipelinedRequests = ByteBuffer.allocateDirect(bytes.length * PIPELINED_REQUEST_COUNT);
+        for (int i = 0; i < PIPELINED_REQUEST_COUNT; i++) {
+            pipelinedRequests.put(bytes);
+        }
+        pipelinedRequests.flip();
+
+        fragmentBuffer = ByteBuffer.allocateDirect(bytes.length);
+    }
+
+    @Benchmark
+    public HttpRequest parse() {
+        request.rewind();
+        return parser.parse(request);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED_REQUEST_COUNT)
+    public void parsePipelined(Blackhole blackhole) {
+        pipelinedRequests.rewind();
+        HttpRequest parsed;
+        while ((parsed = parser.parse(pipelinedRequests)) != null) {
+            blackhole.consume(parsed);
+        }
+    }
+
+    @Benchmark
+    public HttpRequest parseFragmented() {
+        // feeds the request as the reader does when the bytes arrive in several reads
+        fragmentBuffer.clear();
+        request.rewind();
+
+        HttpRequest parsed = null;
+        while (parsed == null) {
+            final int end = Math.min(request.position() + FRAGMENT_SIZE, request.capacity());
+            request.limit(end);
+            fragmentBuffer.put(request);
+
+            fragmentBuffer.flip();
+            parsed = parser.parse(fragmentBuffer);
+            fragmentBuffer.compact();
+        }
+        request.limit(request.capacity());
+        return parsed;
+    }
+
+    public enum RequestKind {
+        MINIMAL("GET / HTTP/1.1\r\n" +
+                        "Host: localhost\r\n" +
+                        "\r\n"),
+        CURL("GET /static/css/style.css HTTP/1.1\r\n" +
+                     "Host: localhost:8888\r\n" +
+                     "User-Agent: curl/7.88.1\r\n" +
+                     "Accept: */*\r\n" +
+                     "\r\n"),
+        BROWSER("GET /static/js/app.5f1c3a.js HTTP/1.1\r\n" +
+                        "Host: www.example.com\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "sec-ch-ua: \"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"\r\n" +
+                        "sec-ch-ua-mobile: ?0\r\n" +
+                        "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 " +
+                        "(KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n" +
+                        "sec-ch-ua-platform: \"Windows\"\r\n" +
+                        "Accept: */*\r\n" +
+                        "Sec-Fetch-Site: same-origin\r\n" +
+                        "Sec-Fetch-Mode: no-cors\r\n" +
+                        "Sec-Fetch-Dest: script\r\n" +
+                        "Referer: https://www.example.com/index.html\r\n" +
+                        "Accept-Encoding: gzip, deflate, br\r\n" +
+                        "Accept-Language: en-US,en;q=0.9,ja;q=0.8\r\n" +
+                        "Cookie: session=7c3bd1f0a9e24c56b1d8; theme=dark; _ga=GA1.2.1234567890.1697000000\r\n" +
+                        "If-None-Match: \"1bb4-18b3f5c2a40\"\r\n" +
+                        "If-Modified-Since: Sun, 15 Oct 2023 08:00:00 GMT\r\n" +
+                        "\r\n");
+
+        private final String text;
+
+        RequestKind(String text) {
+            this.text = text;
+        }
+    }
+}
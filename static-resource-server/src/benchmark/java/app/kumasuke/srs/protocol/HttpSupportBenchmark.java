@@ -0,0 +1,56 @@
+package app.kumasuke.srs.protocol;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding the heads of the responses which are sent most often, into a pooled-size
+ * direct buffer as the writer does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpSupportBenchmark {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    // the generated benchmark code is in another package, which cannot see HttpStatus
+    @Param({"OK", "NOT_MODIFIED", "NOT_FOUND"})
+    public String statusName;
+
+    private HttpResponse response;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        final HttpStatus status = HttpStatus.valueOf(statusName);
+        final var headers = new HttpHeaders();
+        if (status != HttpStatus.NOT_FOUND) {
+            headers.putLowerCase(HttpSupport.HEADER_ETAG, "\"1bb4-18b3f5c2a40\"".getBytes());
+            headers.putLowerCase(HttpSupport.HEADER_LAST_MODIFIED, "Sun, 15 Oct 2023 08:00:00 GMT".getBytes());
+            headers.putLowerCase(HttpSupport.HEADER_VARY, "Accept-Encoding".getBytes());
+        }
+        if (status == HttpStatus.OK) {
+            headers.putLowerCase(HttpSupport.HEADER_ACCEPT_RANGES, "bytes".getBytes());
+            headers.putLowerCase(HttpSupport.HEADER_CONTENT_LENGTH, "7092".getBytes());
+            headers.putLowerCase(HttpSupport.HEADER_CONTENT_TYPE, "text/css; charset=UTF-8".getBytes());
+        }
+        headers.putLowerCase(HttpSupport.HEADER_DATE, HttpDate.now());
+        headers.putLowerCase(HttpSupport.HEADER_SERVER, "K9MAServer/1.0".getBytes());
+
+        response = new HttpResponse("1.1", status, headers, EMPTY_BYTE_ARRAY);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeHead() {
+        buffer.clear();
+        HttpSupport.encodeHead(response, buffer);
+        return buffer;
+    }
+}
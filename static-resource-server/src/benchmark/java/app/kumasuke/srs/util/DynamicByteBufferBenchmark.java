@@ -0,0 +1,72 @@
+package app.kumasuke.srs.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the access patterns of a buffer accumulating the bytes of a connection: appending
+ * chunks as they are read, scanning them byte by byte, and popping complete messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DynamicByteBufferBenchmark {
+    @Param({"64", "1024", "16384"})
+    public int chunkSize;
+
+    private byte[] chunk;
+    private DynamicByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = (byte) ('a' + i % 26);
+        }
+
+        buffer = new DynamicByteBuffer();
+        buffer.append(chunk);
+    }
+
+    @Benchmark
+    public byte[] appendThenPop() {
+        buffer.append(chunk);
+        return buffer.pop(chunkSize);
+    }
+
+    @Benchmark
+    public void appendTwiceThenPopHalves(Blackhole blackhole) {
+        // the messages do not line up with the chunks read
+        buffer.append(chunk);
+        buffer.append(chunk);
+        blackhole.consume(buffer.pop(chunkSize / 2));
+        blackhole.consume(buffer.pop(chunkSize + chunkSize / 2));
+    }
+
+    @Benchmark
+    public int scanByGet() {
+        int crCount = 0;
+        final int length = buffer.length();
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == '\r') {
+                crCount++;
+            }
+        }
+        return crCount;
+    }
+
+    @Benchmark
+    public byte[] getRange() {
+        return buffer.get(chunkSize / 4, chunkSize / 2);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+}
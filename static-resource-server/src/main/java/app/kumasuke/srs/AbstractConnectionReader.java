@@ -1,6 +1,5 @@
 package app.kumasuke.srs;
 
-import app.kumasuke.srs.util.DynamicByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,27 +15,19 @@ public abstract class AbstractConnectionReader<T> implements ConnectionReader {
     protected static final Logger logger = LoggerFactory.getLogger(ConnectionReader.class);
 
     private static final int END_OF_STREAM = -1;
-    private static final int BUFFER_SIZE = 2048;
 
     protected final Queue<T> objects = new LinkedList<>();
 
-    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-
-    protected final int read(@Nonnull Connection connection, @Nonnull DynamicByteBuffer dstBuffer)
+    /**
+     * Reads as many bytes as possible from the given connection into the remaining space
+     * of the given buffer.
+     */
+    protected final int read(@Nonnull Connection connection, @Nonnull ByteBuffer dstBuffer)
             throws IOException {
-        buffer.clear();
-
         int totalBytesRead = 0;
-        int nBytesRead;
-        while ((nBytesRead = connection.socketChannel().read(buffer)) > 0) {
-            buffer.flip();
-
-            final int nRemainingBytes = buffer.remaining();
-            final byte[] tmp = new byte[nRemainingBytes];
-            buffer.get(tmp);
-            dstBuffer.append(tmp);
-
-            buffer.compact();
+        int nBytesRead = 0;
+        while (dstBuffer.hasRemaining() &&
+                (nBytesRead = connection.socketChannel().read(dstBuffer)) > 0) {
             totalBytesRead += nBytesRead;
         }
 
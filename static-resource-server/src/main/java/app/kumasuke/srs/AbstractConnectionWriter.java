@@ -1,6 +1,5 @@
 package app.kumasuke.srs;
 
-import app.kumasuke.srs.util.DynamicByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,39 +14,50 @@ import java.util.Queue;
 public abstract class AbstractConnectionWriter<T> implements ConnectionWriter {
     protected static final Logger logger = LoggerFactory.getLogger(ConnectionWriter.class);
 
-    private static final int BUFFER_SIZE = 128 * 1024;  // 128 KiB
+    protected static final int MAX_TRANSFER_SIZE = 1024 * 1024;  // 1 MiB
 
     protected final Queue<T> objects = new LinkedList<>();
 
-    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /**
+     * Writes the given buffers with gathering writes, so that the bytes of several buffers
+     * could reach the socket in one system call.
+     */
+    protected final long write(@Nonnull ByteBuffer[] srcBuffers, int offset, int length,
+                               @Nonnull Connection connection) throws IOException {
+        final int end = offset + length;
 
-    protected final int write(@Nonnull DynamicByteBuffer srcBuffer, @Nonnull Connection connection)
-            throws IOException {
-        buffer.clear();
-
-        final int getLength = BUFFER_SIZE > srcBuffer.length() ? srcBuffer.length() : BUFFER_SIZE;
-        if (getLength != 0) {
-            final byte[] bytes = srcBuffer.get(0, getLength);
-            buffer.put(bytes);
-            buffer.flip();
-
-            int totalBytesWrite = 0;
-            int nBytesWrite;
-            do {
-                nBytesWrite = connection.socketChannel().write(buffer);
-                totalBytesWrite += nBytesWrite;
-            } while (nBytesWrite != 0 && buffer.hasRemaining());
-
-            // totalBytesWrite may smaller than or equal to getLength,
-            // only pops with the length that actually writes
-            if (totalBytesWrite != 0) {
-                srcBuffer.pop(totalBytesWrite);
+        long totalBytesWrite = 0;
+        while (offset < end && totalBytesWrite < MAX_TRANSFER_SIZE) {
+            final long nBytesWrite = connection.socketChannel().write(srcBuffers, offset, end - offset);
+            if (nBytesWrite == 0) {
+                break;  // the socket buffer is full
             }
+            totalBytesWrite += nBytesWrite;
 
-            return totalBytesWrite;
-        } else {
-            return 0;
+            // skips the buffers which have been written completely
+            while (offset < end && !srcBuffers[offset].hasRemaining()) {
+                offset++;
+            }
         }
+
+        return totalBytesWrite;
+    }
+
+    protected final int write(@Nonnull FileRegion srcRegion, @Nonnull Connection connection)
+            throws IOException {
+        // limits the bytes transferred at one time, lest a large file should
+        // starve other connections which belong to the same io thread
+        int totalBytesWrite = 0;
+        while (!srcRegion.isDone() && totalBytesWrite < MAX_TRANSFER_SIZE) {
+            final long nBytesWrite = srcRegion.transferTo(connection.socketChannel(),
+                                                          MAX_TRANSFER_SIZE - totalBytesWrite);
+            if (nBytesWrite == 0) {
+                break;  // the socket buffer is full
+            }
+            totalBytesWrite += nBytesWrite;
+        }
+
+        return totalBytesWrite;
     }
 
     @Nullable
@@ -10,8 +10,10 @@ public abstract class AbstractProtocolObjectProcessor implements ProtocolObjectP
     protected static final Logger logger = LoggerFactory.getLogger(ProtocolObjectProcessor.class);
 
     protected final Config config;
+    protected final ServerMetrics metrics;
 
-    protected AbstractProtocolObjectProcessor(@Nonnull Config config) {
+    protected AbstractProtocolObjectProcessor(@Nonnull Config config, @Nonnull ServerMetrics metrics) {
         this.config = config;
+        this.metrics = metrics;
     }
 }
@@ -10,6 +10,7 @@ import java.net.SocketAddress;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 class ConnectionAccepter {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionAccepter.class);
@@ -17,22 +18,25 @@ class ConnectionAccepter {
     private final Config config;
     private final ServerSocketChannel serverSocketChannel;
     private final BlockingQueue<Connection> connectionQueue;
+    private final AtomicLong connectionIds;
 
     private Thread accepterThread;
     private volatile boolean isRunning = false;
 
     ConnectionAccepter(@Nonnull Config config,
                        @Nonnull ServerSocketChannel serverSocketChannel,
-                       @Nonnull BlockingQueue<Connection> connectionQueue) {
+                       @Nonnull BlockingQueue<Connection> connectionQueue,
+                       @Nonnull AtomicLong connectionIds) {
         this.config = config;
         this.serverSocketChannel = serverSocketChannel;
         this.connectionQueue = connectionQueue;
+        this.connectionIds = connectionIds;
     }
 
     void start() {
+        isRunning = true;
         accepterThread = new AcceptThread();
         accepterThread.start();
-        isRunning = true;
 
         logger.debug("ConnectionAccepter started");
     }
@@ -45,8 +49,6 @@ class ConnectionAccepter {
     }
 
     private class AcceptThread extends Thread {
-        private long currentConnectionId = 0L;
-
         AcceptThread() {
             super(config.getServerNameWithoutVersion() + "-ConnectionAccepter");
         }
@@ -55,25 +57,27 @@ class ConnectionAccepter {
         public void run() {
             while (isRunning) {
                 final SocketChannel socketChannel;
-                final SocketAddress remoteAddress;
-                final SocketAddress localAddress;
+                SocketAddress remoteAddress = null;
+                SocketAddress localAddress = null;
 
                 try {
                     socketChannel = serverSocketChannel.accept();
-                    remoteAddress = socketChannel.getRemoteAddress();
-                    localAddress = socketChannel.getLocalAddress();
+                    if (logger.isDebugEnabled()) {
+                        remoteAddress = socketChannel.getRemoteAddress();
+                        localAddress = socketChannel.getLocalAddress();
+                    }
                     socketChannel.configureBlocking(false);
                 } catch (IOException e) {
                     logger.error("error encountered when accepting socket", e);
                     continue;
                 }
 
-                final var conn = new Connection(++currentConnectionId, socketChannel);
+                final var conn = new Connection(connectionIds.incrementAndGet(), socketChannel);
                 try {
                     connectionQueue.put(conn);
 
-                    logger.info("a new connection built: Connection#{}({} -> {})", conn.id(),
-                                remoteAddress, localAddress);
+                    logger.debug("a new connection built: Connection#{}({} -> {})", conn.id(),
+                                 remoteAddress, localAddress);
                 } catch (InterruptedException e) {
                     ConnectionAccepter.this.stop();
                 }
@@ -1,20 +1,24 @@
 package app.kumasuke.srs;
 
+import app.kumasuke.srs.util.ByteBufferPool;
 import app.kumasuke.srs.util.Config;
-import app.kumasuke.srs.util.Pair;
+import app.kumasuke.srs.util.HashedTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
 
 class ConnectionProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionProcessor.class);
@@ -27,30 +31,80 @@ class ConnectionProcessor {
 
     private final Config config;
     private final ProtocolFactory protocolFactory;
+    private final ServerMetrics metrics;
     private final ProtocolObjectProcessor protocolObjectProcessor;
     private final BlockingQueue<Connection> connectionQueue;
+    private final List<ServerSocketChannel> serverSocketChannels;
+    private final AtomicLong connectionIds;
     private final List<Queue<Connection>> inboundQueues;
-    private final List<Queue<Connection>> outboundQueues;
+    private final List<Queue<ProcessedObject>> outboundQueues;
+    private final IOThreadBalancer ioThreadBalancer;
+    private final IOThreadLoad[] ioThreadLoads;
 
-    private Thread[] ioThreads;
+    private IOThread[] ioThreads;
     private ExecutorService workerThreads;
     private Thread dispatcherThread;
 
     private volatile boolean isRunning = false;
 
+    /**
+     * Creates a processor whose connections are accepted by a {@link ConnectionAccepter} and taken
+     * from the given queue.
+     */
     ConnectionProcessor(@Nonnull Config config,
                         @Nonnull ProtocolFactory protocolFactory,
+                        @Nonnull ServerMetrics metrics,
                         @Nonnull BlockingQueue<Connection> connectionQueue) {
+        this(config, protocolFactory, metrics, connectionQueue, null, null);
+    }
+
+    /**
+     * Creates a processor whose io threads accept connections by themselves, the i-th io thread
+     * accepts from the i-th of the given non-blocking server socket channels, which may be shared.
+     *
+     * @see #ioThreadCount()
+     */
+    ConnectionProcessor(@Nonnull Config config,
+                        @Nonnull ProtocolFactory protocolFactory,
+                        @Nonnull ServerMetrics metrics,
+                        @Nonnull List<ServerSocketChannel> serverSocketChannels,
+                        @Nonnull AtomicLong connectionIds) {
+        this(config, protocolFactory, metrics, null, serverSocketChannels, connectionIds);
+    }
+
+    private ConnectionProcessor(Config config, ProtocolFactory protocolFactory, ServerMetrics metrics,
+                                BlockingQueue<Connection> connectionQueue,
+                                List<ServerSocketChannel> serverSocketChannels,
+                                AtomicLong connectionIds) {
         this.config = config;
         this.protocolFactory = protocolFactory;
-        this.protocolObjectProcessor = protocolFactory.newProtocolObjectProcessor(config);
+        this.metrics = metrics;
+        this.protocolObjectProcessor = protocolFactory.newProtocolObjectProcessor(config, metrics);
         this.connectionQueue = connectionQueue;
+        this.serverSocketChannels = serverSocketChannels;
+        this.connectionIds = connectionIds;
         this.inboundQueues = createIOQueues();
         this.outboundQueues = createIOQueues();
+        this.ioThreadBalancer = IOThreadBalancer.of(config.getIOBalanceStrategy());
+        this.ioThreadLoads = createIOThreadLoads();
+
+        metrics.bindIOThreadLoads(ioThreadLoads);
     }
 
-    private List<Queue<Connection>> createIOQueues() {
-        final var tmp = new ArrayList<Queue<Connection>>();
+    private static IOThreadLoad[] createIOThreadLoads() {
+        final var result = new IOThreadLoad[IO_THREAD_COUNT];
+        for (int i = 0; i < IO_THREAD_COUNT; i++) {
+            result[i] = new IOThreadLoad();
+        }
+        return result;
+    }
+
+    static int ioThreadCount() {
+        return IO_THREAD_COUNT;
+    }
+
+    private <T> List<Queue<T>> createIOQueues() {
+        final var tmp = new ArrayList<Queue<T>>();
         for (int i = 0; i < IO_THREAD_COUNT; i++) {
             tmp.add(new ConcurrentLinkedQueue<>());
         }
@@ -60,14 +114,12 @@ class ConnectionProcessor {
     void start() {
         isRunning = true;
 
-        dispatcherThread = new ConnectionDispatcherThread();
-        dispatcherThread.start();
+        this.workerThreads = createWorkerThreads();
 
-        ioThreads = new Thread[IO_THREAD_COUNT];
+        ioThreads = new IOThread[IO_THREAD_COUNT];
         for (int i = 0; i < IO_THREAD_COUNT; i++) {
             try {
                 ioThreads[i] = new IOThread(i);
-                ioThreads[i].start();
             } catch (IOException e) {
                 logger.error("cannot create io thread", e);
                 isRunning = false;
@@ -75,17 +127,54 @@ class ConnectionProcessor {
             }
         }
 
-        this.workerThreads = new ThreadPoolExecutor(CORE_WORKER_THREAD_COUNT, MAX_WORKER_THREAD_COUNT,
-                                                    60L, TimeUnit.SECONDS,
-                                                    new LinkedBlockingQueue<>(),
-                                                    new WorkerThreadFactory());
+        // an io thread may accept a connection for any other one as soon as it starts
+        for (IOThread ioThread : ioThreads) {
+            ioThread.start();
+        }
+
+        // dispatches connections only after all io threads are ready
+        if (connectionQueue != null) {
+            dispatcherThread = new ConnectionDispatcherThread();
+            dispatcherThread.start();
+        }
 
         logger.debug("ConnectionProcessor started");
     }
 
+    private ExecutorService createWorkerThreads() {
+        if (config.getWorkerMode() == Config.WorkerMode.VIRTUAL) {
+            final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                // admission is limited by the pending requests of io threads, as there is no queue
+                logger.info("processing requests on virtual threads");
+                return executor;
+            } else {
+                logger.warn("virtual threads are not supported by current jvm, falling back to thread pool");
+            }
+        }
+
+        // the pool grows beyond the core size only when the queue is full, and a task is
+        // rejected once the pool has reached its max size
+        return new ThreadPoolExecutor(CORE_WORKER_THREAD_COUNT, MAX_WORKER_THREAD_COUNT,
+                                      60L, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<>(config.getWorkerQueueCapacity()),
+                                      new WorkerThreadFactory());
+    }
+
+    @Nullable
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // looks the method up reflectively, since virtual threads are only available since Java 21
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;    // also thrown if virtual threads are a disabled preview feature
+        }
+    }
+
     void stop() {
         isRunning = false;
-        if (dispatcherThread.isAlive()) {
+        if (dispatcherThread != null && dispatcherThread.isAlive()) {
             dispatcherThread.interrupt();
             dispatcherThread = null;
         }
@@ -103,13 +192,38 @@ class ConnectionProcessor {
         logger.debug("ConnectionProcessor stopped");
     }
 
-    private int getIOThreadIndex(Connection conn) {
-        return (int) (Math.abs(conn.id()) % IO_THREAD_COUNT);
+    /**
+     * Assigns the given connection to an io thread according to the loads of io threads, and
+     * returns the index of the io thread.
+     *
+     * @param acceptingThread the index of the io thread which accepted the connection, or
+     *                        {@link IOThreadBalancer#NO_ACCEPTING_IO_THREAD}
+     */
+    private int assignIOThread(Connection conn, int acceptingThread) {
+        final int ioThreadIndex = ioThreadBalancer.choose(conn, ioThreadLoads, acceptingThread);
+        ioThreadLoads[ioThreadIndex].connectionAssigned();
+        metrics.connectionAccepted();
+        return ioThreadIndex;
+    }
+
+    private void dispatch(Connection conn, int ioThreadIndex) {
+        inboundQueues.get(ioThreadIndex).add(conn);
+        ioThreads[ioThreadIndex].wakeup();
+        logger.debug("connection has dispatched to io thread: Connection#{} -> IO#{}",
+                     conn.id(), ioThreadIndex);
     }
 
-    private Future<Object> submitProtocolObjectProcessTask(Object protocolObject) {
-        final var task = new ProtocolObjectProcessTask(protocolObject);
-        return workerThreads.submit(task);
+    private boolean submitProtocolObjectProcessTask(ConnectionState state, long sequence, Object protocolObject,
+                                                    IOThread ioThread) {
+        final var task = new ProtocolObjectProcessTask(state, sequence, protocolObject, ioThread);
+        metrics.workerTaskQueued();
+        try {
+            workerThreads.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.workerTaskDequeued();
+            return false;
+        }
     }
 
     private class ConnectionDispatcherThread extends Thread {
@@ -128,244 +242,654 @@ class ConnectionProcessor {
                     break;
                 }
 
-                final int ioThreadIndex = getIOThreadIndex(conn);
-                inboundQueues.get(ioThreadIndex).add(conn);
-                logger.debug("connection has dispatched to io thread: Connection#{} -> IO#{}",
-                             conn.id(), ioThreadIndex);
+                dispatch(conn, assignIOThread(conn, IOThreadBalancer.NO_ACCEPTING_IO_THREAD));
             }
         }
     }
 
     private class IOThread extends Thread {
         private static final int MAX_POLL_SIZE = 8;
+        private static final int MAX_ACCEPT_SIZE = 16;
+        private static final long TIMEOUT_TICK_DURATION = 100;    // milliseconds
+        private static final int TIMEOUT_TICKS_PER_WHEEL = 512;
+        private static final long NO_DEADLINE = Long.MAX_VALUE;
 
         private final int index;
-        private final Selector readSelector;
-        private final Selector writeSelector;
-        private final Map<Long, ConnectionReader> readers;
-        private final Map<Long, ConnectionWriter> writers;
-        private final List<Pair<Connection, Future<Object>>> submittedTasks;
+        private final Selector selector;
+        private final IOThreadLoad load;
+        private final ByteBufferPool bufferPool;
+        private final HashedTimingWheel<ConnectionState> timeouts;
+        private final long idleTimeout;
+        private final long writeTimeout;
+        private final long headerTimeout;
+        private final int maxPendingRequests;
+        private final int maxPendingRequestsPerConnection;
+
+        private int pendingRequests;    // the requests submitted to worker threads but not yet processed
 
         IOThread(int index) throws IOException {
             super(config.getServerNameWithoutVersion() + "-IO-" + index);
             this.index = index;
-            this.readSelector = Selector.open();
-            this.writeSelector = Selector.open();
-            this.readers = new HashMap<>();
-            this.writers = new HashMap<>();
-            this.submittedTasks = new LinkedList<>();
+            this.selector = Selector.open();
+            this.load = ioThreadLoads[index];
+            this.bufferPool = new ByteBufferPool();
+            this.timeouts = new HashedTimingWheel<>(TIMEOUT_TICK_DURATION, TIMEOUT_TICKS_PER_WHEEL, now());
+            this.idleTimeout = config.getConnectionIdleTimeout().toMillis();
+            this.writeTimeout = config.getConnectionWriteTimeout().toMillis();
+            this.headerTimeout = config.getConnectionHeaderTimeout().toMillis();
+            this.maxPendingRequests = config.getIOThreadMaxPendingRequests();
+            this.maxPendingRequestsPerConnection = config.getConnectionMaxPendingRequests();
+            this.pendingRequests = 0;
+
+            if (serverSocketChannels != null) {
+                serverSocketChannels.get(index).register(selector, SelectionKey.OP_ACCEPT);
+            }
+        }
+
+        /**
+         * Wakes up this thread if it is blocked on selecting, the caller should invoke this method
+         * after it has put something into the queues which belong to this thread.
+         */
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        /**
+         * Completion callback of worker threads, hands the processed object over to this thread
+         * and makes it to be written to the given connection.
+         * <p>
+         * A {@code null} return object means the processing has failed.
+         */
+        void onProcessed(ConnectionState state, long sequence, @Nullable Object returnObject) {
+            outboundQueues.get(index).add(new ProcessedObject(state, sequence, returnObject));
+            wakeup();
         }
 
         @Override
         public void run() {
-            while (isRunning) {
-                try {
-                    pollFromInboundQueue();
-                    readFromSelectedConnections();
+            try {
+                while (isRunning) {
+                    try {
+                        // blocks until some connections are ready, any other thread wakes up this thread,
+                        // or the next tick of timeouts elapses
+                        final long selectTimeout = timeouts.isEmpty() ?
+                                0 : Math.max(1, timeouts.nextTickTime() - now());
+                        selector.select(selectTimeout);
+                        if (Thread.interrupted()) {
+                            isRunning = false;
+                            break;
+                        }
+
+                        pollFromInboundQueue();
+                        processSelectedConnections();
+
+                        pollFromOutboundQueue();
+                        timeouts.expire(now(), this::onTimeout);
+                    } catch (IOException e) {
+                        logger.error("error encountered when selecting connections", e);
+                    } catch (RuntimeException e) {
+                        logger.error("unexpected error encountered", e);
+                    }
+                }
+            } finally {
+                closeSelector();
+            }
+        }
 
-                    checkSubmittedTasks();
+        private void pollFromInboundQueue() {
+            List<Connection> connections = pollFromQueue(inboundQueues);
+            for (Connection conn : connections) {
+                register(conn);
+            }
+        }
 
-                    pollFromOutboundQueue();
-                    writeToSelectedConnections();
-                } catch (RuntimeException e) {
-                    logger.error("unexpected error encountered", e);
-                }
+        private void register(Connection conn) {
+            final SelectionKey key;
+            try {
+                key = conn.socketChannel().register(selector, SelectionKey.OP_READ);
+            } catch (ClosedChannelException e) {
+                logger.warn("channel already closed when starting processing", e);
+                load.connectionClosed();
+                metrics.connectionClosed();
+                closeChannel(conn);
+                return;
+            }
 
-                try {
-                    // prevents endless loop wasting cpu time
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    isRunning = false;
-                    return;
+            final var state = new ConnectionState(conn, key,
+                                                  protocolFactory.newConnectionReader(bufferPool),
+                                                  protocolFactory.newConnectionWriter(bufferPool),
+                                                  maxPendingRequestsPerConnection, now());
+            key.attach(state);
+            updateTimeout(state);
+        }
+
+        /**
+         * Re-arms the timeout of the given connection if its deadline has been brought forward,
+         * a deadline put off is left to be found when the armed timeout expires.
+         */
+        private void updateTimeout(ConnectionState state) {
+            final long deadline = getDeadline(state);
+            final HashedTimingWheel.Timeout<ConnectionState> timeout = state.timeout;
+            if (timeout == null || deadline < timeout.deadline()) {
+                if (timeout != null) {
+                    timeout.cancel();
                 }
+                state.timeout = deadline == NO_DEADLINE ? null : timeouts.schedule(state, deadline);
             }
         }
 
-        private void pollFromInboundQueue() {
-            List<Connection> connections = pollConnectionsFromQueue(inboundQueues);
-            registerConnectionsToSelector(connections, readSelector, SelectionKey.OP_READ);
+        private long getDeadline(ConnectionState state) {
+            if (state.writer.hasRemaining()) {
+                // the client may not be reading the responses
+                return writeTimeout > 0 ? state.lastWriteTime + writeTimeout : NO_DEADLINE;
+            }
+
+            if (state.pipeline.pendingCount() > 0 || state.reader.hasNext()) {
+                return NO_DEADLINE;     // the client is waiting for the server
+            }
+
+            long deadline = NO_DEADLINE;
+            if (idleTimeout > 0) {
+                deadline = Math.max(state.lastReadTime, state.lastWriteTime) + idleTimeout;
+            }
+            if (headerTimeout > 0 && state.reader.hasPartial()) {
+                // the client may be sending a request slowly to keep the connection
+                deadline = Math.min(deadline, state.partialSince + headerTimeout);
+            }
+            return deadline;
+        }
+
+        private void onTimeout(ConnectionState state) {
+            if (state.closed) {
+                return;
+            }
+
+            state.timeout = null;
+            final long deadline = getDeadline(state);
+            if (deadline <= now()) {
+                logger.debug("connection timed out: Connection#{}", state.conn.id());
+                metrics.connectionTimedOut();
+                close(state);
+            } else if (deadline != NO_DEADLINE) {
+                state.timeout = timeouts.schedule(state, deadline);
+            }
         }
 
         private void pollFromOutboundQueue() {
-            List<Connection> connections = pollConnectionsFromQueue(outboundQueues);
-            registerConnectionsToSelector(connections, writeSelector, SelectionKey.OP_WRITE);
+            List<ProcessedObject> processed = pollFromQueue(outboundQueues);
+            for (ProcessedObject processedObject : processed) {
+                final var state = processedObject.state;
+                final var returnObject = processedObject.returnObject;
+                pendingRequests -= 1;
+
+                if (state.closed) {
+                    logger.debug("connection closed before processing finished: Connection#{}",
+                                 state.conn.id());
+                    discardReturnObject(state.conn, returnObject);
+                } else if (returnObject == null) {
+                    // there will never be a response for the failed request, and the
+                    // responses of latter requests cannot be sent before it
+                    close(state);
+                } else {
+                    state.pipeline.complete(processedObject.sequence, returnObject);
+                    writeInOrder(state);
+
+                    logger.debug("processing finished: Connection#{}", state.conn.id());
+
+                    if ((state.key.interestOps() & SelectionKey.OP_READ) == 0) {
+                        resumeReading(state);
+                    }
+                }
+            }
+        }
+
+        private void writeInOrder(ConnectionState state) {
+            // writes the processed objects strictly in the order of their requests
+            final ConnectionWriter writer = state.writer;
+            final boolean hadRemaining = writer.hasRemaining();
+            final long remainingBytes = writer.remainingBytes();
+            Object nextObject;
+            while ((nextObject = state.pipeline.pollInOrder()) != null) {
+                writer.add(nextObject);
+            }
+            load.addPendingBytes(writer.remainingBytes() - remainingBytes);
+
+            if (writer.hasRemaining()) {
+                state.key.interestOps(state.key.interestOps() | SelectionKey.OP_WRITE);
+                if (!hadRemaining) {
+                    state.lastWriteTime = now();    // the write timeout starts from now on
+                    state.writeSince = System.nanoTime();
+                }
+            }
+            updateTimeout(state);
+        }
+
+        private void resumeReading(ConnectionState state) {
+            try {
+                // the requests which have been read but not submitted go first
+                submitReadObjects(state);
+            } catch (IllegalMessageException e) {
+                logger.warn("illegal message received, closing connection: Connection#{}, {}",
+                            state.conn.id(), e.getMessage());
+                close(state);
+            }
+        }
+
+        /**
+         * Submits the protocol objects read from the given connection to worker threads, until the
+         * connection runs out of its budget of pending requests, in which case the connection will
+         * not be read until some of its requests have been answered. A request is rejected at once
+         * if this thread or the worker threads are saturated.
+         */
+        private void submitReadObjects(ConnectionState state) {
+            final ConnectionReader reader = state.reader;
+            final Pipeline pipeline = state.pipeline;
+
+            // a client may pipeline several requests, they are processed in parallel
+            boolean rejected = false;
+            while (pipeline.pendingCount() < maxPendingRequestsPerConnection && reader.hasNext()) {
+                final Object protocolObject = reader.next();
+                final long sequence = pipeline.nextSequence();
+                metrics.requestReceived();
+                if (pendingRequests < maxPendingRequests &&
+                        submitProtocolObjectProcessTask(state, sequence, protocolObject, this)) {
+                    pendingRequests += 1;
+                    logger.debug("processing submitted: Connection#{}", state.conn.id());
+                } else {
+                    pipeline.complete(sequence, protocolObjectProcessor.reject(protocolObject));
+                    rejected = true;
+                    metrics.requestRejected();
+                    logger.debug("processing rejected, server is busy: Connection#{}", state.conn.id());
+                }
+            }
+
+            if (rejected) {
+                writeInOrder(state);
+            }
+
+            final SelectionKey key = state.key;
+            if (pipeline.pendingCount() < maxPendingRequestsPerConnection) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                logger.debug("read selection on connection paused: Connection#{}", state.conn.id());
+            }
+        }
+
+        private void discardReturnObject(Connection conn, Object returnObject) {
+            if (returnObject == null) return;
+
+            // lets a temporary writer release the resources held by the object
+            try (final ConnectionWriter writer = protocolFactory.newConnectionWriter(bufferPool)) {
+                writer.add(returnObject);
+            } catch (IOException e) {
+                logger.warn("error encountered when discarding processed object: Connection#" + conn.id(), e);
+            }
         }
 
-        private List<Connection> pollConnectionsFromQueue(List<Queue<Connection>> queues) {
-            final Queue<Connection> theQueue = queues.get(index);
+        private <T> List<T> pollFromQueue(List<Queue<T>> queues) {
+            final Queue<T> theQueue = queues.get(index);
 
-            List<Connection> result = new ArrayList<>(MAX_POLL_SIZE);
+            List<T> result = new ArrayList<>(MAX_POLL_SIZE);
 
             int pollCount = 0;
             while (pollCount < MAX_POLL_SIZE) {
-                final Connection conn = theQueue.poll();
-                if (conn != null) {
+                final T element = theQueue.poll();
+                if (element != null) {
                     pollCount += 1;
-                    result.add(conn);
+                    result.add(element);
                 } else {
                     break;  // fail-fast
                 }
             }
 
+            // there are more elements left, makes sure the next selecting will return immediately
+            if (!theQueue.isEmpty()) {
+                selector.wakeup();
+            }
+
             return result;
         }
 
-        private void registerConnectionsToSelector(List<Connection> connections, Selector dstSelector, int operation) {
-            for (Connection conn : connections) {
-                SocketChannel socketChannel = conn.socketChannel();
-                try {
-                    socketChannel.register(dstSelector, operation, conn);
-                } catch (ClosedChannelException e) {
-                    logger.warn("channel already closed when starting processing", e);
-                }
-            }
-        }
+        private void processSelectedConnections() {
+            final Set<SelectionKey> keys = selector.selectedKeys();
+            final Iterator<SelectionKey> it = keys.iterator();
+            while (it.hasNext()) {
+                final SelectionKey key = it.next();
+                it.remove();
 
-        private void readFromSelectedConnections() {
-            doSelectOnSelector(readSelector, this::readBySelectionKey);
-        }
+                if (key.isValid() && key.isAcceptable()) {
+                    acceptBySelectionKey(key);
+                    continue;
+                }
 
-        private void writeToSelectedConnections() {
-            doSelectOnSelector(writeSelector, this::writeBySelectionKey);
+                // the keys of connections are always attached with their states
+                final var state = (ConnectionState) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    readBySelectionKey(state);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeBySelectionKey(state);
+                }
+            }
         }
 
-        private void doSelectOnSelector(Selector selector, Consumer<SelectionKey> consumer) {
-            final int nSelected;
+        private void closeSelector() {
             try {
-                nSelected = selector.selectNow();
+                selector.close();
             } catch (IOException e) {
-                logger.error("error encountered when selecting connections", e);
-                return;
+                logger.warn("error encountered when closing selector", e);
             }
+        }
 
-            if (nSelected > 0) {
-                final Set<SelectionKey> keys = selector.selectedKeys();
-                final Iterator<SelectionKey> it = keys.iterator();
-                while (it.hasNext()) {
-                    final SelectionKey key = it.next();
-                    consumer.accept(key);
-                    it.remove();
+        private void acceptBySelectionKey(SelectionKey key) {
+            final var serverSocketChannel = (ServerSocketChannel) key.channel();
+
+            // accepts a few connections at a time, lest the connections of this thread should starve
+            for (int i = 0; i < MAX_ACCEPT_SIZE; i++) {
+                final SocketChannel socketChannel;
+                try {
+                    socketChannel = serverSocketChannel.accept();
+                } catch (IOException e) {
+                    logger.error("error encountered when accepting socket", e);
+                    break;
+                }
+
+                if (socketChannel == null) {
+                    break;  // no more pending connections, or they have been accepted by other threads
+                }
+
+                final var conn = new Connection(connectionIds.incrementAndGet(), socketChannel);
+                try {
+                    socketChannel.configureBlocking(false);
+
+                    // logged per connection, the addresses are only looked up when they are logged
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("a new connection built: Connection#{}({} -> {})", conn.id(),
+                                     socketChannel.getRemoteAddress(), socketChannel.getLocalAddress());
+                    }
+                } catch (IOException e) {
+                    logger.warn("error encountered when accepting connection: Connection#" + conn.id(), e);
+                    closeChannel(conn);
+                    continue;
+                }
+
+                // registers the connection directly, unless another io thread is less loaded
+                final int ioThreadIndex = assignIOThread(conn, index);
+                if (ioThreadIndex == index) {
+                    register(conn);
+                } else {
+                    dispatch(conn, ioThreadIndex);
                 }
             }
         }
 
-        private void readBySelectionKey(SelectionKey key) {
-            final var conn = (Connection) key.attachment();
-            final ConnectionReader reader = getReader(conn);
-
-            boolean needCancel = false;
+        private void readBySelectionKey(ConnectionState state) {
+            final var conn = state.conn;
             try {
-                final int nBytesRead = reader.read(conn);
+                final long readStart = System.nanoTime();
+                final int nBytesRead = state.reader.read(conn);
                 if (nBytesRead > 0) {
-                    if (reader.hasNext()) {
-                        final Object protocolObject = reader.next();
-                        final Future<Object> future = submitProtocolObjectProcessTask(protocolObject);
-                        submittedTasks.add(new Pair<>(conn, future));
-
-                        logger.debug("processing submitted: Connection#{}", conn.id());
-                    }
+                    metrics.recordLatency(ServerMetrics.Phase.READ, System.nanoTime() - readStart);
+                    metrics.bytesRead(nBytesRead);
+                    state.onRead(now());
+                    submitReadObjects(state);
+                    updateTimeout(state);
                 }
             } catch (IOException e) {
                 logger.warn("error encountered when reading from connection: Connection#" + conn.id(), e);
-                needCancel = true;
+                close(state);
             } catch (EndOfStreamException e) {
-                logger.info("connection has been closed: Connection#{}", conn.id());
-                needCancel = true;
-            }
-
-            if (needCancel) {
-                key.cancel();
-                close(conn);
+                logger.debug("connection has been closed: Connection#{}", conn.id());
+                close(state);
+            } catch (IllegalMessageException e) {
+                logger.warn("illegal message received, closing connection: Connection#{}, {}",
+                            conn.id(), e.getMessage());
+                close(state);
             }
         }
 
-        private void writeBySelectionKey(SelectionKey key) {
-            final var conn = (Connection) key.attachment();
-            final ConnectionWriter writer = getWriter(conn);
+        private void writeBySelectionKey(ConnectionState state) {
+            final var conn = state.conn;
+            final ConnectionWriter writer = state.writer;
 
-            boolean needCancel = false;
+            final long remainingBytes = writer.remainingBytes();
             try {
                 final int nBytesWrite = writer.write(conn);
-                if (nBytesWrite == 0) {
+                load.addPendingBytes(writer.remainingBytes() - remainingBytes);
+
+                if (nBytesWrite > 0) {
+                    metrics.bytesWritten(nBytesWrite);
+                    state.lastWriteTime = now();
+                    updateTimeout(state);
+                }
+                if (!writer.hasRemaining()) {
+                    metrics.recordLatency(ServerMetrics.Phase.WRITE, System.nanoTime() - state.writeSince);
+
                     // no need to close connection here, lest later requests
                     // should create an new connection
-                    // we just want to pause the selection, and we are not
+                    // we just want to pause the write selection, and we are not
                     // going to call SelectionKey#cancel(), because it would
                     // make the connection closed
-                    key.interestOps(0);
+                    state.key.interestOps(state.key.interestOps() & ~SelectionKey.OP_WRITE);
 
                     logger.debug("write selection on connection paused: Connection#{}", conn.id());
                 }
             } catch (IOException | RuntimeException e) {
                 logger.error("error encountered when writing to connection: Connection#" + conn.id(), e);
-                needCancel = true;
+                load.addPendingBytes(writer.remainingBytes() - remainingBytes);
+                close(state);
             }
+        }
 
-            if (needCancel) {
-                key.cancel();
-                close(conn);
+        private void close(ConnectionState state) {
+            if (state.closed) {
+                return;
             }
-        }
+            state.closed = true;
+            state.key.cancel();
 
-        private void checkSubmittedTasks() {
-            final Iterator<Pair<Connection, Future<Object>>> it = submittedTasks.iterator();
-            while (it.hasNext()) {
-                final Pair<Connection, Future<Object>> pair = it.next();
-                final var conn = pair.getFirst();
-                final var future = pair.getSecond();
+            final var conn = state.conn;
+            try {
+                state.reader.close();
+            } catch (IOException ioe) {
+                logger.warn("error encountered when closing reader: Connection#" + conn.id(), ioe);
+            }
+            for (Object returnObject : state.pipeline.drain()) {
+                discardReturnObject(conn, returnObject);
+            }
+            load.addPendingBytes(-state.writer.remainingBytes());
+            try {
+                state.writer.close();
+            } catch (IOException ioe) {
+                logger.warn("error encountered when closing writer: Connection#" + conn.id(), ioe);
+            }
 
-                if (future.isDone()) {
-                    try {
-                        final Object returnObject = future.get();
-                        final ConnectionWriter writer = getWriter(conn);
-
-                        writer.add(returnObject);
-                        outboundQueues.get(getIOThreadIndex(conn)).add(conn);
-                        logger.debug("processing finished: Connection#{}", conn.id());
-                    } catch (InterruptedException e) {
-                        isRunning = false;
-                        Thread.currentThread().interrupt();
-                    } catch (ExecutionException e) {
-                        final Throwable cause = e.getCause();
-                        logger.warn("error encountered when processing message from connection: Connection#" +
-                                            conn.id(), cause);
-                    } finally {
-                        it.remove();
-                    }
-                }
+            if (state.timeout != null) {
+                state.timeout.cancel();
+                state.timeout = null;
             }
+
+            load.connectionClosed();
+            metrics.connectionClosed();
+            closeChannel(conn);
         }
 
-        private void close(Connection conn) {
-            readers.remove(conn.id());
-            writers.remove(conn.id());
+        private long now() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
 
+        private void closeChannel(Connection conn) {
             try {
                 conn.close();
             } catch (IOException ioe) {
                 logger.warn("error encountered when closing connection: Connection#" + conn.id(), ioe);
             }
         }
+    }
+
+    /**
+     * Keeps the order of the protocol objects read from a connection, so that the processed
+     * objects can be written in the same order even if they are processed in parallel.
+     * <p>
+     * The processed objects are kept in a ring indexed by their sequences, which is as large as
+     * the budget of pending requests of a connection, as no more objects than that may be
+     * submitted before the earliest of them is polled.
+     */
+    private static class Pipeline {
+        private final Object[] processedObjects;
+
+        private long nextSubmitSequence = 0;
+        private long nextWriteSequence = 0;
+
+        Pipeline(int capacity) {
+            this.processedObjects = new Object[capacity];
+        }
+
+        long nextSequence() {
+            assert pendingCount() < processedObjects.length;
+            return nextSubmitSequence++;
+        }
 
-        private ConnectionReader getReader(Connection conn) {
-            return readers.computeIfAbsent(conn.id(), k -> protocolFactory.newConnectionReader());
+        void complete(long sequence, Object returnObject) {
+            processedObjects[index(sequence)] = returnObject;
         }
 
-        private ConnectionWriter getWriter(Connection conn) {
-            return writers.computeIfAbsent(conn.id(), k -> protocolFactory.newConnectionWriter());
+        /**
+         * Returns the number of the objects which have been submitted but not yet polled, that is
+         * those being processed and those waiting for an earlier one to be processed.
+         */
+        int pendingCount() {
+            return (int) (nextSubmitSequence - nextWriteSequence);
+        }
+
+        @Nullable
+        Object pollInOrder() {
+            if (nextWriteSequence == nextSubmitSequence) {
+                return null;
+            }
+
+            final int index = index(nextWriteSequence);
+            final Object returnObject = processedObjects[index];
+            if (returnObject != null) {
+                processedObjects[index] = null;
+                nextWriteSequence += 1;
+            }
+            return returnObject;
+        }
+
+        /**
+         * Removes and returns all the processed objects which have not been polled.
+         */
+        List<Object> drain() {
+            final var result = new ArrayList<>();
+            for (long sequence = nextWriteSequence; sequence < nextSubmitSequence; sequence++) {
+                final int index = index(sequence);
+                if (processedObjects[index] != null) {
+                    result.add(processedObjects[index]);
+                    processedObjects[index] = null;
+                }
+            }
+            nextWriteSequence = nextSubmitSequence;
+            return result;
+        }
+
+        private int index(long sequence) {
+            return (int) (sequence % processedObjects.length);
+        }
+    }
+
+    /**
+     * Everything an io thread keeps for a connection, attached to the selection key of the
+     * connection so that none of it has to be looked up. Only the io thread which the connection
+     * belongs to may access it, worker threads merely hand it back along with processed objects.
+     * <p>
+     * The times are in milliseconds of a monotonic clock.
+     */
+    private static class ConnectionState {
+        private final Connection conn;
+        private final SelectionKey key;
+        private final ConnectionReader reader;
+        private final ConnectionWriter writer;
+        private final Pipeline pipeline;
+
+        private long lastReadTime;
+        private long lastWriteTime;
+        private long partialSince;      // when the incomplete request began to arrive
+        private long writeSince;        // in nanoseconds, when the pending responses began to be written
+        private boolean hasPartial;
+        private HashedTimingWheel.Timeout<ConnectionState> timeout;
+        private boolean closed;
+
+        ConnectionState(Connection conn, SelectionKey key, ConnectionReader reader, ConnectionWriter writer,
+                        int maxPendingRequests, long now) {
+            this.conn = conn;
+            this.key = key;
+            this.reader = reader;
+            this.writer = writer;
+            this.pipeline = new Pipeline(maxPendingRequests);
+            this.lastReadTime = now;
+            this.lastWriteTime = now;
+        }
+
+        /**
+         * Should be invoked after some bytes have been read, and before the objects read are taken.
+         */
+        void onRead(long now) {
+            lastReadTime = now;
+            if (!reader.hasPartial()) {
+                hasPartial = false;
+            } else if (!hasPartial || reader.hasNext()) {
+                // some requests have completed, the incomplete one is a new one
+                hasPartial = true;
+                partialSince = now;
+            }
+        }
+    }
+
+    private static class ProcessedObject {
+        private final ConnectionState state;
+        private final long sequence;
+        private final Object returnObject;
+
+        ProcessedObject(ConnectionState state, long sequence, Object returnObject) {
+            this.state = state;
+            this.sequence = sequence;
+            this.returnObject = returnObject;
         }
     }
 
-    private class ProtocolObjectProcessTask implements Callable<Object> {
+    private class ProtocolObjectProcessTask implements Runnable {
+        private final ConnectionState state;
+        private final long sequence;
         private final Object protocolObject;
+        private final IOThread ioThread;
+        private final long submitTime;
 
-        ProtocolObjectProcessTask(Object protocolObject) {
+        ProtocolObjectProcessTask(ConnectionState state, long sequence, Object protocolObject, IOThread ioThread) {
+            this.state = state;
+            this.sequence = sequence;
             this.protocolObject = protocolObject;
+            this.ioThread = ioThread;
+            this.submitTime = System.nanoTime();
         }
 
         @Override
-        public Object call() {
-            return protocolObjectProcessor.process(protocolObject);
+        public void run() {
+            final long startTime = System.nanoTime();
+            metrics.workerTaskDequeued();
+            metrics.recordLatency(ServerMetrics.Phase.QUEUE, startTime - submitTime);
+
+            Object returnObject = null;
+            try {
+                returnObject = protocolObjectProcessor.process(protocolObject);
+            } catch (RuntimeException e) {
+                logger.warn("error encountered when processing message from connection: Connection#" +
+                                    state.conn.id(), e);
+            }
+            metrics.recordLatency(ServerMetrics.Phase.PROCESS, System.nanoTime() - startTime);
+
+            ioThread.onProcessed(state, sequence, returnObject);
         }
     }
 
@@ -2,13 +2,19 @@ package app.kumasuke.srs;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
 
-public interface ConnectionReader {
+public interface ConnectionReader extends Closeable {
     int read(@Nonnull Connection connection) throws IOException;
 
     boolean hasNext();
 
+    /**
+     * Checks whether some bytes of an incomplete object have been read.
+     */
+    boolean hasPartial();
+
     @Nullable
     Object next();
 }
@@ -1,10 +1,19 @@
 package app.kumasuke.srs;
 
 import javax.annotation.Nonnull;
+import java.io.Closeable;
 import java.io.IOException;
 
-public interface ConnectionWriter {
+public interface ConnectionWriter extends Closeable {
     int write(@Nonnull Connection connection) throws IOException;
 
+    boolean hasRemaining();
+
+    /**
+     * Returns the number of bytes known to be waiting to be written, which may be less than the
+     * actual number if some of the objects added have not been encoded yet.
+     */
+    long remainingBytes();
+
     void add(@Nonnull Object object);
 }
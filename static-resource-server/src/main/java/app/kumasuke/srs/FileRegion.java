@@ -0,0 +1,89 @@
+package app.kumasuke.srs;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A region of a file which is going to be transferred to a channel directly by
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, the contents of the file
+ * will never be loaded into the heap.
+ */
+public class FileRegion implements Closeable {
+    private final FileChannel fileChannel;
+    private final long count;
+
+    private long position;
+    private long remaining;
+
+    public FileRegion(@Nonnull FileChannel fileChannel, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.fileChannel = fileChannel;
+        this.count = count;
+        this.position = position;
+        this.remaining = count;
+    }
+
+    @Nonnull
+    public static FileRegion open(@Nonnull Path path) throws IOException {
+        final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new FileRegion(fileChannel, 0, fileChannel.size());
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the region of the given file which starts at the given position and has
+     * the given count of bytes.
+     */
+    @Nonnull
+    public static FileRegion open(@Nonnull Path path, long position, long count) throws IOException {
+        final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new FileRegion(fileChannel, position, count);
+        } catch (RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long remaining() {
+        return remaining;
+    }
+
+    public boolean isDone() {
+        return remaining == 0;
+    }
+
+    long transferTo(@Nonnull WritableByteChannel target, long maxCount) throws IOException {
+        final long nBytesTransferred = fileChannel.transferTo(position, Math.min(remaining, maxCount), target);
+        if (nBytesTransferred == 0 && position >= fileChannel.size()) {
+            // the file has been truncated after the region was created
+            throw new EOFException("Unexpected end of file at position: " + position);
+        }
+
+        position += nBytesTransferred;
+        remaining -= nBytesTransferred;
+        return nBytesTransferred;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,86 @@
+package app.kumasuke.srs;
+
+import app.kumasuke.srs.util.Config;
+
+import javax.annotation.Nonnull;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses the io thread which a new connection is assigned to.
+ * <p>
+ * A connection accepted by an io thread is registered with it directly, whereas assigning it to
+ * another one takes a cross-thread queue and a wakeup. The strategies comparing loads therefore
+ * keep the connection on the accepting io thread unless another one is strictly less loaded.
+ */
+interface IOThreadBalancer {
+    /**
+     * Passed as the accepting io thread when connections are accepted by a dedicated thread.
+     */
+    int NO_ACCEPTING_IO_THREAD = -1;
+
+    /**
+     * Returns the index of the io thread to which the given connection is assigned.
+     *
+     * @param loads           the live loads of io threads, indexed by the indices of io threads
+     * @param acceptingThread the index of the io thread which accepted the connection, or
+     *                        {@link #NO_ACCEPTING_IO_THREAD}
+     */
+    int choose(@Nonnull Connection conn, @Nonnull IOThreadLoad[] loads, int acceptingThread);
+
+    @Nonnull
+    static IOThreadBalancer of(@Nonnull Config.BalanceStrategy strategy) {
+        switch (strategy) {
+            case MODULO:
+                return (conn, loads, acceptingThread) -> (int) (Math.abs(conn.id()) % loads.length);
+            case LEAST_CONNECTIONS:
+                return (conn, loads, acceptingThread) ->
+                        chooseLeast(loads, acceptingThread, IOThreadBalancer::compareConnections);
+            case LEAST_PENDING_BYTES:
+                return (conn, loads, acceptingThread) ->
+                        chooseLeast(loads, acceptingThread, IOThreadBalancer::comparePendingBytes);
+            case TWO_CHOICES:
+                return IOThreadBalancer::chooseOfTwo;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static int chooseLeast(IOThreadLoad[] loads, int acceptingThread, Comparator<IOThreadLoad> comparator) {
+        // the accepting io thread wins the ties
+        int result = acceptingThread == NO_ACCEPTING_IO_THREAD ? 0 : acceptingThread;
+        for (int i = 0; i < loads.length; i++) {
+            if (comparator.compare(loads[i], loads[result]) < 0) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The power of two choices, which compares two random io threads only, and avoids all the
+     * connections of a burst rushing to the same least loaded one. The accepting io thread, if
+     * any, is always one of the two.
+     */
+    private static int chooseOfTwo(Connection conn, IOThreadLoad[] loads, int acceptingThread) {
+        if (loads.length == 1) {
+            return 0;
+        }
+
+        final var random = ThreadLocalRandom.current();
+        final int first = acceptingThread == NO_ACCEPTING_IO_THREAD ?
+                random.nextInt(loads.length) : acceptingThread;
+        final int second = (first + 1 + random.nextInt(loads.length - 1)) % loads.length;
+        return compareConnections(loads[second], loads[first]) < 0 ? second : first;
+    }
+
+    private static int compareConnections(IOThreadLoad a, IOThreadLoad b) {
+        final int result = Integer.compare(a.connections(), b.connections());
+        return result != 0 ? result : Long.compare(a.pendingBytes(), b.pendingBytes());
+    }
+
+    private static int comparePendingBytes(IOThreadLoad a, IOThreadLoad b) {
+        final int result = Long.compare(a.pendingBytes(), b.pendingBytes());
+        return result != 0 ? result : Integer.compare(a.connections(), b.connections());
+    }
+}
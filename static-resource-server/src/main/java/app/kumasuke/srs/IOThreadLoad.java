@@ -0,0 +1,42 @@
+package app.kumasuke.srs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live load of an io thread, which is updated by the io thread itself and read by the
+ * threads assigning connections to it.
+ */
+class IOThreadLoad {
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * Returns the number of connections which have been assigned to the io thread and are
+     * not yet closed.
+     */
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written to the connections of the io thread.
+     */
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    void connectionAssigned() {
+        connections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    void addPendingBytes(long delta) {
+        if (delta != 0) {
+            pendingBytes.addAndGet(delta);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package app.kumasuke.srs;
 
+import app.kumasuke.srs.util.ByteBufferPool;
 import app.kumasuke.srs.util.Config;
 
 import javax.annotation.Nonnull;
@@ -7,11 +8,11 @@ import java.nio.channels.SocketChannel;
 
 public interface ProtocolFactory {
     @Nonnull
-    ConnectionReader newConnectionReader();
+    ConnectionReader newConnectionReader(@Nonnull ByteBufferPool bufferPool);
 
     @Nonnull
-    ConnectionWriter newConnectionWriter();
+    ConnectionWriter newConnectionWriter(@Nonnull ByteBufferPool bufferPool);
 
     @Nonnull
-    ProtocolObjectProcessor newProtocolObjectProcessor(@Nonnull Config config);
+    ProtocolObjectProcessor newProtocolObjectProcessor(@Nonnull Config config, @Nonnull ServerMetrics metrics);
 }
@@ -5,4 +5,11 @@ import javax.annotation.Nonnull;
 public interface ProtocolObjectProcessor {
     @Nonnull
     Object process(@Nonnull Object object);
+
+    /**
+     * Returns the object to be written back instead of the processed one, when the server is
+     * too busy to process the given object.
+     */
+    @Nonnull
+    Object reject(@Nonnull Object object);
 }
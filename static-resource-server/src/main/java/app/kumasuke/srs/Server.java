@@ -5,19 +5,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Server {
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
 
     private final Config config;
     private final ProtocolFactory protocolFactory;
+    private final ServerMetrics metrics;
 
-    private ServerSocketChannel serverSocketChannel;
+    private ObjectName metricsName;
+    private List<ServerSocketChannel> serverSocketChannels;
     private BlockingQueue<Connection> connectionQueue;
     private ConnectionAccepter accepter;
     private ConnectionProcessor processor;
@@ -25,30 +36,69 @@ public class Server {
     public Server(@Nonnull Config config, @Nonnull ProtocolFactory protocolFactory) {
         this.config = config;
         this.protocolFactory = protocolFactory;
+        this.metrics = new ServerMetrics();
     }
 
+    @Nonnull
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts this server.
+     *
+     * @throws IllegalStateException if the server socket cannot be opened, in which case
+     *                               nothing has been started
+     */
     public void start() {
-        openServerSocketChannel();
+        final var connectionIds = new AtomicLong();
+        try {
+            if (config.getAccepterMode() == Config.AccepterMode.THREAD) {
+                serverSocketChannels = List.of(openServerSocketChannel(false));
+            } else {
+                serverSocketChannels = openServerSocketChannelsForIOThreads();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot start server on port: " + config.getServerPort(), e);
+        }
 
-        connectionQueue = new LinkedBlockingQueue<>();
-        accepter = new ConnectionAccepter(config, serverSocketChannel, connectionQueue);
-        processor = new ConnectionProcessor(config, protocolFactory, connectionQueue);
+        if (config.getAccepterMode() == Config.AccepterMode.THREAD) {
+            connectionQueue = new LinkedBlockingQueue<>();
+            accepter = new ConnectionAccepter(config, serverSocketChannels.get(0), connectionQueue, connectionIds);
+            processor = new ConnectionProcessor(config, protocolFactory, metrics, connectionQueue);
 
-        accepter.start();
+            accepter.start();
+        } else {
+            // the io threads accept and register connections on their own selectors
+            processor = new ConnectionProcessor(config, protocolFactory, metrics, serverSocketChannels,
+                                                connectionIds);
+        }
         processor.start();
 
+        if (config.isMetricsJmxEnabled()) {
+            registerMetrics();
+        }
+
         logger.info("server started on port: " + config.getServerPort());
     }
 
+    /**
+     * Stops this server, which does nothing if it has not been started.
+     */
     public void stop() {
-        try {
-            serverSocketChannel.close();
-        } catch (IOException e) {
-            logger.warn("error encountered when open closing server", e);
+        if (processor == null) {
+            return;     // never started, or failed to start
         }
 
-        accepter.stop();
-        accepter = null;
+        unregisterMetrics();
+
+        closeServerSocketChannels(serverSocketChannels);
+        serverSocketChannels = null;
+
+        if (accepter != null) {
+            accepter.stop();
+            accepter = null;
+        }
 
         processor.stop();
         processor = null;
@@ -58,12 +108,85 @@ public class Server {
         logger.info("server stopped");
     }
 
-    private void openServerSocketChannel() {
+    private void registerMetrics() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
         try {
-            serverSocketChannel = ServerSocketChannel.open();
-            serverSocketChannel.bind(new InetSocketAddress(config.getServerPort()));
-        } catch (IOException e) {
-            logger.error("cannot start server due to some errors", e);
+            final var name = new ObjectName("app.kumasuke.srs:type=ServerMetrics,port=" + config.getServerPort());
+            mBeanServer.registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            logger.warn("cannot register metrics to jmx", e);
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsName == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            logger.warn("cannot unregister metrics from jmx", e);
+        }
+        metricsName = null;
+    }
+
+    private List<ServerSocketChannel> openServerSocketChannelsForIOThreads() throws IOException {
+        final int ioThreadCount = ConnectionProcessor.ioThreadCount();
+        final var result = new ArrayList<ServerSocketChannel>(ioThreadCount);
+
+        if (config.getAccepterMode() == Config.AccepterMode.REUSEPORT) {
+            // the kernel balances the connections among the sockets bound to the same port
+            try {
+                for (int i = 0; i < ioThreadCount; i++) {
+                    result.add(openNonBlockingServerSocketChannel(true));
+                }
+                return Collections.unmodifiableList(result);
+            } catch (UnsupportedOperationException e) {
+                logger.warn("SO_REUSEPORT is not supported, falling back to a shared server socket");
+                closeServerSocketChannels(result);
+                result.clear();
+            } catch (IOException e) {
+                closeServerSocketChannels(result);
+                throw e;
+            }
+        }
+
+        final ServerSocketChannel sharedChannel = openNonBlockingServerSocketChannel(false);
+        for (int i = 0; i < ioThreadCount; i++) {
+            result.add(sharedChannel);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private ServerSocketChannel openNonBlockingServerSocketChannel(boolean reusePort) throws IOException {
+        final ServerSocketChannel channel = openServerSocketChannel(reusePort);
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private ServerSocketChannel openServerSocketChannel(boolean reusePort) throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(config.getServerPort()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private void closeServerSocketChannels(List<ServerSocketChannel> channels) {
+        if (channels == null) return;
+
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("error encountered when closing server", e);
+            }
         }
     }
 }
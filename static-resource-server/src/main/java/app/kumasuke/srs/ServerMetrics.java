@@ -0,0 +1,253 @@
+package app.kumasuke.srs;
+
+import app.kumasuke.srs.util.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of a server, which are updated by io threads and worker
+ * threads without locking, and could be read through JMX or served by the protocol itself.
+ * <p>
+ * Only totals are kept, rates are left to be derived by whoever collects the metrics.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsTimedOut = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder workerQueueSize = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final Map<Phase, LatencyHistogram> latencies = createLatencies();
+
+    private volatile IOThreadLoad[] ioThreadLoads = new IOThreadLoad[0];
+
+    private static Map<Phase, LatencyHistogram> createLatencies() {
+        final var result = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            result.put(phase, new LatencyHistogram());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    void bindIOThreadLoads(@Nonnull IOThreadLoad[] ioThreadLoads) {
+        this.ioThreadLoads = ioThreadLoads;
+    }
+
+    void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void connectionTimedOut() {
+        connectionsTimedOut.increment();
+    }
+
+    void requestReceived() {
+        requests.increment();
+    }
+
+    void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    void workerTaskQueued() {
+        workerQueueSize.increment();
+    }
+
+    void workerTaskDequeued() {
+        workerQueueSize.decrement();
+    }
+
+    void bytesRead(long n) {
+        bytesRead.add(n);
+    }
+
+    void bytesWritten(long n) {
+        bytesWritten.add(n);
+    }
+
+    void recordLatency(@Nonnull Phase phase, long nanos) {
+        latencies.get(phase).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Counts a response of the given status code, which is only known to the protocol.
+     */
+    public void recordStatus(int statusCode) {
+        statusCounts.computeIfAbsent(statusCode, k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getConnectionsTimedOut() {
+        return connectionsTimedOut.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        long result = 0;
+        for (IOThreadLoad load : ioThreadLoads) {
+            result += load.connections();
+        }
+        return result;
+    }
+
+    @Override
+    public int[] getIOThreadConnections() {
+        final IOThreadLoad[] loads = ioThreadLoads;
+        final var result = new int[loads.length];
+        for (int i = 0; i < loads.length; i++) {
+            result[i] = loads[i].connections();
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getIOThreadPendingBytes() {
+        final IOThreadLoad[] loads = ioThreadLoads;
+        final var result = new long[loads.length];
+        for (int i = 0; i < loads.length; i++) {
+            result[i] = loads[i].pendingBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    @Override
+    public long getWorkerQueueSize() {
+        return Math.max(0, workerQueueSize.sum());   // the sum is not an atomic snapshot
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        final var result = new TreeMap<String, Long>();
+        statusCounts.forEach((statusCode, count) -> result.put(String.valueOf(statusCode), count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        final var result = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+        latencies.forEach((phase, histogram) -> result.put(phase.label(), histogram.snapshot()));
+        return result;
+    }
+
+    /**
+     * Formats all the metrics in the text exposition format of Prometheus.
+     */
+    @Nonnull
+    public String toText() {
+        final var sb = new StringBuilder(2048);
+        appendMetric(sb, "srs_connections_accepted_total", null, getConnectionsAccepted());
+        appendMetric(sb, "srs_connections_closed_total", null, getConnectionsClosed());
+        appendMetric(sb, "srs_connections_timed_out_total", null, getConnectionsTimedOut());
+        appendMetric(sb, "srs_connections_active", null, getActiveConnections());
+
+        final int[] ioThreadConnections = getIOThreadConnections();
+        for (int i = 0; i < ioThreadConnections.length; i++) {
+            appendMetric(sb, "srs_io_thread_connections", "thread=\"" + i + "\"", ioThreadConnections[i]);
+        }
+        final long[] ioThreadPendingBytes = getIOThreadPendingBytes();
+        for (int i = 0; i < ioThreadPendingBytes.length; i++) {
+            appendMetric(sb, "srs_io_thread_pending_bytes", "thread=\"" + i + "\"", ioThreadPendingBytes[i]);
+        }
+
+        appendMetric(sb, "srs_requests_total", null, getRequests());
+        appendMetric(sb, "srs_requests_rejected_total", null, getRejectedRequests());
+        appendMetric(sb, "srs_worker_queue_size", null, getWorkerQueueSize());
+        appendMetric(sb, "srs_bytes_read_total", null, getBytesRead());
+        appendMetric(sb, "srs_bytes_written_total", null, getBytesWritten());
+
+        getStatusCounts().forEach((statusCode, count) ->
+                appendMetric(sb, "srs_responses_total", "code=\"" + statusCode + "\"", count));
+
+        getLatencies().forEach((phase, snapshot) -> {
+            final String labels = "phase=\"" + phase + "\"";
+            for (double quantile : QUANTILES) {
+                appendMetric(sb, "srs_latency_microseconds", labels + ",quantile=\"" + quantile + "\"",
+                             snapshot.valueAt(quantile));
+            }
+            appendMetric(sb, "srs_latency_microseconds_max", labels, snapshot.getMax());
+            appendMetric(sb, "srs_latency_microseconds_count", labels, snapshot.getCount());
+        });
+
+        return sb.toString();
+    }
+
+    private static void appendMetric(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * The phases of handling a request whose latencies are recorded.
+     */
+    public enum Phase {
+        /**
+         * Reading the bytes available on a connection and parsing them into requests, which
+         * are done in one pass by the reader.
+         */
+        READ,
+        /**
+         * Waiting in the queue of worker threads.
+         */
+        QUEUE,
+        /**
+         * Processing on a worker thread.
+         */
+        PROCESS,
+        /**
+         * Writing the responses to a connection, since some of them have become writable until
+         * all of them have been written.
+         */
+        WRITE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package app.kumasuke.srs;
+
+import app.kumasuke.srs.util.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ServerMetrics}, all the latencies are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+    long getConnectionsAccepted();
+
+    long getConnectionsClosed();
+
+    long getConnectionsTimedOut();
+
+    long getActiveConnections();
+
+    int[] getIOThreadConnections();
+
+    long[] getIOThreadPendingBytes();
+
+    long getRequests();
+
+    long getRejectedRequests();
+
+    long getWorkerQueueSize();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    Map<String, Long> getStatusCounts();
+
+    Map<String, LatencyHistogram.Snapshot> getLatencies();
+}
@@ -0,0 +1,257 @@
+package app.kumasuke.srs.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static app.kumasuke.srs.protocol.HttpSupport.*;
+
+/**
+ * Selects the content coding of a file according to the Accept-Encoding header of a request.
+ * <p>
+ * A precompressed '.gz' sibling of the file is preferred for gzip. Otherwise, a file of a text
+ * type is compressed on the fly, and the compressed variant is kept in a size-bounded LRU cache
+ * keyed by the path and the validators of the file, so every version of a file is compressed once.
+ */
+class HttpCompression {
+    private static final Logger logger = LoggerFactory.getLogger(HttpCompression.class);
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String ANY_CODING = "*";
+    private static final byte[] VARY_ACCEPT_ENCODING = "Accept-Encoding".getBytes();
+
+    private final long cacheMaxSize;
+    private final long maxFileSize;
+
+    private final LinkedHashMap<String, byte[]> variants;
+    private long currentSize;
+
+    HttpCompression(long cacheMaxSize, long maxFileSize) {
+        this.cacheMaxSize = cacheMaxSize;
+        this.maxFileSize = Math.min(cacheMaxSize, maxFileSize);
+        this.variants = new LinkedHashMap<>(16, 0.75f, true);  // access-order
+        this.currentSize = 0;
+    }
+
+    /**
+     * Selects the representation to be sent for the given request, and puts the Vary header
+     * into the given headers if the representation depends on the Accept-Encoding header.
+     * The given lookup of the gzip sibling of the file is only invoked if the selection depends
+     * on it.
+     */
+    @Nonnull
+    HttpRepresentation select(@Nonnull HttpRequest request, @Nonnull HttpRepresentation identity,
+                              @Nonnull Supplier<GzipSibling> siblingLookup, @Nonnull HttpHeaders headers) {
+        final String coding = negotiate(request);
+        final boolean compressible = isCompressible(identity.contentType());
+
+        // a compressible file varies anyway, the sibling matters only to gzip or to the Vary header
+        final GzipSibling sibling = compressible && !GZIP.equals(coding) ? null : siblingLookup.get();
+        if (!compressible && sibling == null) {
+            return identity;
+        }
+        headers.putLowerCase(HEADER_VARY, VARY_ACCEPT_ENCODING);
+
+        if (coding == null) {
+            return identity;
+        } else if (GZIP.equals(coding) && sibling != null) {
+            return new HttpRepresentation(sibling.path, sibling.size, sibling.validators,
+                                          identity.contentType(), null, GZIP);
+        } else if (compressible && identity.size() <= maxFileSize) {
+            final byte[] variant = getOrCompress(identity, coding);
+            if (variant != null && variant.length < identity.size()) {
+                return new HttpRepresentation(identity.path(), variant.length,
+                                              identity.validators().forContentEncoding(coding),
+                                              identity.contentType(), ByteBuffer.wrap(variant).asReadOnlyBuffer(),
+                                              coding);
+            }
+        }
+
+        return identity;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        final int semicolon = contentType.indexOf(';');
+        final String mimeType = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return TEXT_FILE_MIMETYPES.contains(mimeType.trim());
+    }
+
+    /**
+     * Looks up the precompressed '.gz' sibling of the given file.
+     *
+     * @return the sibling, or {@code null} if there is no such regular file
+     */
+    @Nullable
+    static GzipSibling findGzipSibling(@Nonnull Path path) {
+        final Path siblingPath = path.resolveSibling(path.getFileName() + GZIP_SUFFIX);
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(siblingPath, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? new GzipSibling(siblingPath, attributes) : null;
+        } catch (IOException e) {
+            return null;    // there is no such file in most cases
+        }
+    }
+
+    /**
+     * Returns the content coding preferred by the client, or {@code null} if the client prefers
+     * neither gzip nor deflate.
+     */
+    @Nullable
+    static String negotiate(@Nonnull HttpRequest request) {
+        final List<byte[]> acceptEncoding = request.headers().getValues(HEADER_ACCEPT_ENCODING);
+
+        float gzipQuality = -1, deflateQuality = -1, anyQuality = -1;
+        for (byte[] value : acceptEncoding) {
+            if (value == null) continue;
+
+            for (String element : new String(value, StandardCharsets.ISO_8859_1).split(",")) {
+                final int semicolon = element.indexOf(';');
+                final String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+                final float quality = semicolon < 0 ? 1 : parseQuality(element.substring(semicolon + 1));
+
+                if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                    gzipQuality = Math.max(gzipQuality, quality);
+                } else if (DEFLATE.equalsIgnoreCase(coding)) {
+                    deflateQuality = Math.max(deflateQuality, quality);
+                } else if (ANY_CODING.equals(coding)) {
+                    anyQuality = Math.max(anyQuality, quality);
+                }
+            }
+        }
+
+        // the codings which are not listed take the quality of '*'
+        if (gzipQuality < 0) gzipQuality = anyQuality;
+        if (deflateQuality < 0) deflateQuality = anyQuality;
+
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return GZIP;
+        } else if (deflateQuality > 0) {
+            return DEFLATE;
+        } else {
+            return null;
+        }
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private byte[] getOrCompress(HttpRepresentation identity, String coding) {
+        final String key = identity.path() + "\0" + identity.validators().eTag() + "\0" + coding;
+        synchronized (this) {
+            final byte[] variant = variants.get(key);
+            if (variant != null) {
+                return variant;
+            }
+        }
+
+        // compresses outside the lock, a file may be compressed twice by concurrent requests
+        final byte[] variant;
+        try {
+            variant = compress(readContent(identity), coding);
+        } catch (IOException e) {
+            logger.warn("error encountered when compressing file: " + identity.path(), e);
+            return null;
+        }
+
+        synchronized (this) {
+            final byte[] previous = variants.put(key, variant);
+            if (previous != null) {
+                currentSize -= previous.length;
+            }
+            currentSize += variant.length;
+            evictIfNecessary();
+        }
+
+        return variant;
+    }
+
+    private static byte[] readContent(HttpRepresentation identity) throws IOException {
+        final ByteBuffer content = identity.content();
+        if (content != null) {
+            final byte[] result = new byte[content.remaining()];
+            content.duplicate().get(result);
+            return result;
+        } else {
+            return Files.readAllBytes(identity.path());
+        }
+    }
+
+    private static byte[] compress(byte[] content, String coding) throws IOException {
+        final var result = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (final OutputStream out = GZIP.equals(coding) ?
+                new GZIPOutputStream(result) : new DeflaterOutputStream(result)) {
+            out.write(content);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * The precompressed '.gz' sibling of a file, with the attributes it had when it was found.
+     */
+    static class GzipSibling {
+        private final Path path;
+        private final long size;
+        private final FileTime lastModified;
+        private final HttpValidators validators;
+
+        private GzipSibling(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.validators = new HttpValidators(size, lastModified).forContentEncoding(GZIP);
+        }
+
+        /**
+         * Checks whether the given sibling is the same version of the same file as this one.
+         */
+        boolean isSameAs(@Nullable GzipSibling other) {
+            return other != null && path.equals(other.path) && size == other.size &&
+                    lastModified.equals(other.lastModified);
+        }
+    }
+
+    private void evictIfNecessary() {
+        final Iterator<Map.Entry<String, byte[]>> it = variants.entrySet().iterator();
+        while (currentSize > cacheMaxSize && it.hasNext()) {
+            final byte[] eldest = it.next().getValue();
+            it.remove();
+            currentSize -= eldest.length;
+        }
+    }
+}
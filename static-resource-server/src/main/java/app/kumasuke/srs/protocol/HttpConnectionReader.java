@@ -2,45 +2,135 @@ package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.AbstractConnectionReader;
 import app.kumasuke.srs.Connection;
-import app.kumasuke.srs.util.DynamicByteBuffer;
+import app.kumasuke.srs.IllegalMessageException;
+import app.kumasuke.srs.util.ByteBufferPool;
+import app.kumasuke.srs.util.PooledByteBuffer;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
-import static app.kumasuke.srs.protocol.HttpSupport.POSITION_NOT_FOUND;
-
+/**
+ * Reads the requests of a connection, which are parsed one by one as they are taken, so that the
+ * requests pipelined beyond what the connection may have pending stay unparsed in the read buffer,
+ * and the connection is not read again until they are taken.
+ */
 public class HttpConnectionReader extends AbstractConnectionReader<HttpRequest> {
-    private final DynamicByteBuffer readBuffer = new DynamicByteBuffer();
+    private static final int MAX_BUFFER_SIZE = HttpRequestParser.MAX_REQUEST_HEAD_SIZE +
+            HttpRequestParser.MAX_REQUEST_BODY_SIZE;
+
+    private final ByteBufferPool bufferPool;
+    private final HttpRequestParser parser = new HttpRequestParser();
+
+    // always in read mode, holds the bytes of the requests which are not parsed yet;
+    // the pooled buffer is only held while there are such bytes, an oversized request
+    // moves them to a heap buffer
+    private PooledByteBuffer pooledReadBuffer;
+    private ByteBuffer readBuffer;
+
+    // thrown when the request which fails to be parsed is taken
+    private IllegalMessageException parseFailure;
+
+    public HttpConnectionReader(@Nonnull ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
 
     @Override
     public int read(@Nonnull Connection connection) throws IOException {
-        int nBytesRead = read(connection, readBuffer);
+        if (readBuffer == null) {
+            pooledReadBuffer = bufferPool.acquire();
+            readBuffer = pooledReadBuffer.buffer();
+        } else {
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                // the connection is only read when no complete request is left unparsed
+                growReadBuffer();   // makes room for the rest of an incomplete request
+            }
+        }
+
+        final int nBytesRead;
+        try {
+            nBytesRead = read(connection, readBuffer);
+        } finally {
+            readBuffer.flip();
+        }
+
         if (nBytesRead > 0) {
             logger.debug("Connection#{} bytes read: {} bytes", connection.id(), nBytesRead);
+        } else if (!readBuffer.hasRemaining()) {
+            releaseReadBuffer();
+        }
 
-            final int endOfRequest = HttpSupport.findNextEndOfRequest(readBuffer);
-            if (endOfRequest != POSITION_NOT_FOUND) {
-                final byte[] tmp = readBuffer.pop(endOfRequest);
-                final var httpRequest = HttpSupport.parseRequest(new DynamicByteBuffer(tmp));
+        return nBytesRead;
+    }
 
-                logger.info("Connection#{} request enqueued: method = {}, requestUri = {}",
-                             connection.id(), httpRequest.method(), httpRequest.requestUri());
-                objects.add(httpRequest);
+    private void growReadBuffer() {
+        final int newCapacity = Math.min(readBuffer.capacity() * 2, MAX_BUFFER_SIZE);
+        final ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+
+        releaseReadBuffer();
+        readBuffer = newBuffer;
+    }
+
+    /**
+     * Checks whether there is a request to be taken, parsing the next one from the read buffer
+     * if necessary. A request which fails to be parsed is thrown when it is taken.
+     */
+    @Override
+    public boolean hasNext() {
+        if (objects.isEmpty() && parseFailure == null && readBuffer != null) {
+            try {
+                final HttpRequest httpRequest = parser.parse(readBuffer);
+                if (httpRequest != null) {
+                    logger.debug("request parsed: method = {}, requestUri = {}",
+                                 httpRequest.method(), httpRequest.requestUri());
+                    objects.add(httpRequest);
+                }
+            } catch (IllegalMessageException e) {
+                parseFailure = e;
+            }
+
+            if (!readBuffer.hasRemaining()) {
+                releaseReadBuffer();
             }
         }
 
-        return nBytesRead;
+        return parseFailure != null || !objects.isEmpty();
+    }
+
+    private void releaseReadBuffer() {
+        if (pooledReadBuffer != null) {
+            pooledReadBuffer.release();
+            pooledReadBuffer = null;
+        }
+        readBuffer = null;
     }
 
+    @Override
+    public boolean hasPartial() {
+        return readBuffer != null;  // only held while there are unparsed bytes
+    }
+
+    /**
+     * @throws IllegalMessageException if the next request cannot be parsed
+     */
     @Nonnull
     @Override
     public HttpRequest next() {
-        final HttpRequest first = super.next();
-        if (first != null) {
-            return first;
-        } else {
+        if (!hasNext()) {
             throw new NoSuchElementException();
+        } else if (parseFailure != null) {
+            throw parseFailure;
+        } else {
+            return objects.remove();
         }
     }
+
+    @Override
+    public void close() {
+        releaseReadBuffer();
+    }
 }
@@ -2,50 +2,206 @@ package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.AbstractConnectionWriter;
 import app.kumasuke.srs.Connection;
-import app.kumasuke.srs.util.DynamicByteBuffer;
+import app.kumasuke.srs.FileRegion;
+import app.kumasuke.srs.util.ByteBufferPool;
+import app.kumasuke.srs.util.PooledByteBuffer;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 
 public class HttpConnectionWriter extends AbstractConnectionWriter<HttpResponse> {
-    private final DynamicByteBuffer writeBuffer = new DynamicByteBuffer();
+    private static final int MAX_GATHER_SIZE = 64;
+
+    private final ByteBufferPool bufferPool;
+
+    // the parts to be written, which may span several pipelined responses, each of them is
+    // a pooled head, a buffer or a file region; the consecutive buffers at the front are
+    // written in one gathering write, while a file region is transferred on its own
+    private final Deque<Object> pendingParts = new ArrayDeque<>();
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_SIZE];
+    private int pendingFileCount;
+    private long remainingBytes;
+
+    public HttpConnectionWriter(@Nonnull ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
 
     @Override
     public int write(@Nonnull Connection connection) throws IOException {
-        HttpResponse response;
-        while ((response = next()) != null) {
-            byte[] bytes = HttpSupport.toBytes(response);
-            // same Connection won't send a second request before the first
-            // completes. When this happens, it can only because the client
-            // cancels receiving and re-send another request
-            // under such circumstances, we have to cancel data sending of
-            // the first request
-            if (!writeBuffer.isEmpty()) {
-                writeBuffer.clear();
-            }
-            writeBuffer.append(bytes);
-
-            logger.info("Connection#{} response enqueued: statusCode = {}, statusText = {}",
+        // writes the responses one after another in the order they were added,
+        // lest a client pipelining its requests should receive mixed responses
+        int totalBytesWrite = 0;
+        while (totalBytesWrite < MAX_TRANSFER_SIZE) {
+            pollResponses(connection);
+            if (pendingParts.isEmpty()) {
+                break;
+            }
+
+            final long nBytesWrite = writePendingParts(connection);
+            if (nBytesWrite == 0 && !pendingParts.isEmpty()) {
+                break;  // the socket buffer is full
+            }
+            totalBytesWrite += nBytesWrite;
+        }
+
+        return totalBytesWrite;
+    }
+
+    private void pollResponses(Connection connection) {
+        // stops at a file region, the buffers after it cannot be gathered with the ones before it
+        while (pendingFileCount == 0 && pendingParts.size() < MAX_GATHER_SIZE) {
+            final HttpResponse response = next();
+            if (response == null) {
+                break;
+            }
+
+            final Object head = encodeHead(response);
+            pendingParts.addLast(head);
+            remainingBytes += toBuffer(head).remaining();
+            for (Object part : response.bodyParts()) {
+                pendingParts.addLast(part);
+                if (part instanceof FileRegion) {
+                    pendingFileCount++;
+                }
+            }
+
+            logger.debug("Connection#{} response enqueued: statusCode = {}, statusText = {}",
                          connection.id(), response.status().getStatusCode(), response.status().getReasonPhrase());
         }
+    }
 
-        if (writeBuffer.isEmpty()) {
-            return 0;
+    private Object encodeHead(HttpResponse response) {
+        final PooledByteBuffer pooledHead = bufferPool.acquire();
+        if (HttpSupport.encodeHead(response, pooledHead.buffer())) {
+            pooledHead.buffer().flip();
+            return pooledHead;
         } else {
-            int nBytesWrite = write(writeBuffer, connection);
+            pooledHead.release();
+
+            // the head is too large to fit in a pooled buffer, which is rare
+            int capacity = bufferPool.bufferSize();
+            ByteBuffer head;
+            do {
+                capacity *= 2;
+                head = ByteBuffer.allocate(capacity);
+            } while (!HttpSupport.encodeHead(response, head));
+            return head.flip();
+        }
+    }
+
+    private long writePendingParts(Connection connection) throws IOException {
+        final Object first = pendingParts.peekFirst();
+        if (first instanceof FileRegion) {
+            final var fileBody = (FileRegion) first;
+            final long nBytesWrite = write(fileBody, connection);
+            remainingBytes -= nBytesWrite;
+            logger.debug("Connection#{} bytes transferred: {} bytes", connection.id(), nBytesWrite);
+
+            if (fileBody.isDone()) {
+                pendingParts.pollFirst();
+                pendingFileCount--;
+                closeFileBody(fileBody);
+            }
+
+            return nBytesWrite;
+        } else {
+            int gatherLength = 0;
+            for (Object part : pendingParts) {
+                if (part instanceof FileRegion || gatherLength == MAX_GATHER_SIZE) {
+                    break;
+                }
+                gatherBuffers[gatherLength++] = toBuffer(part);
+            }
+
+            final long nBytesWrite = write(gatherBuffers, 0, gatherLength, connection);
+            remainingBytes -= nBytesWrite;
             logger.debug("Connection#{} bytes written: {} bytes", connection.id(), nBytesWrite);
 
+            // removes the buffers which have been written completely
+            for (int i = 0; i < gatherLength && !gatherBuffers[i].hasRemaining(); i++) {
+                releaseBuffer(pendingParts.pollFirst());
+            }
+            Arrays.fill(gatherBuffers, 0, gatherLength, null);
+
             return nBytesWrite;
         }
     }
 
+    private static ByteBuffer toBuffer(Object part) {
+        if (part instanceof PooledByteBuffer) {
+            return ((PooledByteBuffer) part).buffer();
+        } else {
+            return (ByteBuffer) part;
+        }
+    }
+
+    private static void releaseBuffer(Object part) {
+        if (part instanceof PooledByteBuffer) {
+            ((PooledByteBuffer) part).release();
+        }
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return !objects.isEmpty() || !pendingParts.isEmpty();
+    }
+
+    @Override
+    public long remainingBytes() {
+        return remainingBytes;
+    }
+
     @Override
     public void add(@Nonnull Object object) {
         if (object instanceof HttpResponse) {
             final var response = (HttpResponse) object;
             objects.add(response);
+            for (Object part : response.bodyParts()) {
+                if (part instanceof FileRegion) {
+                    remainingBytes += ((FileRegion) part).remaining();
+                } else {
+                    remainingBytes += ((ByteBuffer) part).remaining();
+                }
+            }
         } else {
             throw new IllegalArgumentException();
         }
     }
+
+    @Override
+    public void close() {
+        HttpResponse response;
+        while ((response = next()) != null) {
+            for (Object part : response.bodyParts()) {
+                closePart(part);
+            }
+        }
+
+        Object part;
+        while ((part = pendingParts.pollFirst()) != null) {
+            closePart(part);
+        }
+        pendingFileCount = 0;
+        remainingBytes = 0;
+    }
+
+    private void closePart(Object part) {
+        if (part instanceof FileRegion) {
+            closeFileBody((FileRegion) part);
+        } else {
+            releaseBuffer(part);
+        }
+    }
+
+    private void closeFileBody(FileRegion fileBody) {
+        try {
+            fileBody.close();
+        } catch (IOException e) {
+            logger.warn("error encountered when closing file body", e);
+        }
+    }
 }
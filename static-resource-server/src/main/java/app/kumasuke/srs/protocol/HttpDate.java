@@ -0,0 +1,74 @@
+package app.kumasuke.srs.protocol;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Formats the dates of http headers, the current date is formatted at most once per second.
+ */
+class HttpDate {
+    // the fixed-width IMF-fixdate of RFC 7231, RFC 1123 allows a day of the month with one digit
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter PARSER = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    // a date this far ahead of the clock is taken as the clock having been set back
+    private static final long MAX_CLOCK_SETBACK_SECONDS = 5;
+
+    private static final AtomicReference<CachedDate> currentDate =
+            new AtomicReference<>(new CachedDate(Long.MIN_VALUE, new byte[0]));
+
+    /**
+     * Returns the encoded current date, the returned array is shared and must not be modified.
+     * The dates returned never go backwards, unless the clock has been set back.
+     */
+    @Nonnull
+    static byte[] now() {
+        final long epochSecond = System.currentTimeMillis() / 1000;
+
+        CachedDate date = currentDate.get();
+        if (date.epochSecond == epochSecond) {
+            return date.bytes;
+        }
+
+        // a thread which read the clock before another one must not replace the later date
+        final var newDate = new CachedDate(epochSecond, format(epochSecond).getBytes(StandardCharsets.US_ASCII));
+        while (epochSecond > date.epochSecond || date.epochSecond - epochSecond > MAX_CLOCK_SETBACK_SECONDS) {
+            if (currentDate.compareAndSet(date, newDate)) {
+                return newDate.bytes;
+            }
+            date = currentDate.get();
+        }
+        return date.bytes;
+    }
+
+    @Nonnull
+    static String format(long epochSecond) {
+        return FORMATTER.format(Instant.ofEpochSecond(epochSecond));
+    }
+
+    /**
+     * Parses the given date and returns its epoch second.
+     *
+     * @throws DateTimeParseException if the given date is not a valid RFC 1123 date
+     */
+    static long parse(@Nonnull String date) {
+        return Instant.from(PARSER.parse(date.trim())).getEpochSecond();
+    }
+
+    private static class CachedDate {
+        private final long epochSecond;
+        private final byte[] bytes;
+
+        CachedDate(long epochSecond, byte[] bytes) {
+            this.epochSecond = epochSecond;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package app.kumasuke.srs.protocol;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of requested files, which keeps the resolved path, the
+ * attributes, the validators, the content type and the gzip sibling of each file, and copies
+ * the contents of small files into direct buffers. A cached file is revalidated against its
+ * last modified time and size, and those of its sibling, at most once per revalidate interval,
+ * so the changes of a file may not be noticed until the interval has elapsed.
+ * <p>
+ * The contents are copied rather than mapped, as reading a mapping of a file truncated on disk
+ * raises an {@link InternalError}, which would kill the io thread writing it.
+ */
+class HttpFileCache {
+    private static final int MAX_FILE_COUNT = 8192;
+
+    private final long maxSize;
+    private final long maxFileSize;
+    private final long revalidateIntervalNanos;
+
+    private final LinkedHashMap<String, CachedFile> files;
+    private long currentSize;
+
+    HttpFileCache(long maxSize, long maxFileSize, @Nonnull Duration revalidateInterval) {
+        this.maxSize = maxSize;
+        this.maxFileSize = Math.min(Math.min(maxSize, maxFileSize), Integer.MAX_VALUE);  // fits in a buffer
+        this.revalidateIntervalNanos = revalidateInterval.toNanos();
+        this.files = new LinkedHashMap<>(16, 0.75f, true);  // access-order
+        this.currentSize = 0;
+    }
+
+    /**
+     * Returns the cached file of the given request uri, or {@code null} if there is no such file
+     * or the cached one is out of date.
+     */
+    @Nullable
+    CachedFile get(@Nonnull String requestUri) {
+        final CachedFile file;
+        synchronized (this) {
+            file = files.get(requestUri);
+        }
+
+        if (file == null) {
+            return null;
+        } else if (isValid(file)) {
+            return file;
+        } else {
+            synchronized (this) {
+                if (files.get(requestUri) == file) {
+                    remove(requestUri);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Loads the given file and puts it into this cache.
+     */
+    @Nonnull
+    CachedFile cache(@Nonnull String requestUri, @Nonnull Path path, @Nullable String contentType)
+            throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final long size = attributes.size();
+
+        ByteBuffer content = null;
+        if (size <= maxFileSize) {
+            content = readContent(path, (int) size);
+        }
+
+        final var file = new CachedFile(path, size, attributes.lastModifiedTime(), contentType, content,
+                                        HttpCompression.findGzipSibling(path), System.nanoTime());
+        synchronized (this) {
+            remove(requestUri);
+            files.put(requestUri, file);
+            currentSize += file.contentSize();
+            evictIfNecessary();
+        }
+
+        return file;
+    }
+
+    private static ByteBuffer readContent(Path path, int size) throws IOException {
+        final ByteBuffer content = ByteBuffer.allocateDirect(size);
+        try (final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (fileChannel.read(content) < 0) {
+                    throw new EOFException("file truncated while being cached: " + path);
+                }
+            }
+        }
+        return content.flip();
+    }
+
+    private boolean isValid(CachedFile file) {
+        final long now = System.nanoTime();
+        if (now - file.lastValidated < revalidateIntervalNanos) {
+            return true;
+        }
+
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;   // the file may have been deleted
+        }
+
+        if (attributes.size() == file.size && attributes.lastModifiedTime().equals(file.lastModified) &&
+                isSameGzipSibling(file)) {
+            file.lastValidated = now;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean isSameGzipSibling(CachedFile file) {
+        final HttpCompression.GzipSibling sibling = HttpCompression.findGzipSibling(file.path);
+        return file.gzipSibling == null ? sibling == null : file.gzipSibling.isSameAs(sibling);
+    }
+
+    private void remove(String requestUri) {
+        final CachedFile removed = files.remove(requestUri);
+        if (removed != null) {
+            currentSize -= removed.contentSize();
+        }
+    }
+
+    private void evictIfNecessary() {
+        final Iterator<Map.Entry<String, CachedFile>> it = files.entrySet().iterator();
+        while ((currentSize > maxSize || files.size() > MAX_FILE_COUNT) && it.hasNext()) {
+            final CachedFile eldest = it.next().getValue();
+            it.remove();
+            currentSize -= eldest.contentSize();
+        }
+    }
+
+    static class CachedFile {
+        private final Path path;
+        private final long size;
+        private final FileTime lastModified;
+        private final HttpValidators validators;
+        private final String contentType;
+        private final ByteBuffer content;
+        private final HttpCompression.GzipSibling gzipSibling;
+
+        private volatile long lastValidated;
+
+        private CachedFile(Path path, long size, FileTime lastModified, String contentType,
+                           ByteBuffer content, HttpCompression.GzipSibling gzipSibling,
+                           long lastValidated) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.validators = new HttpValidators(size, lastModified);
+            this.contentType = contentType;
+            this.content = content;
+            this.gzipSibling = gzipSibling;
+            this.lastValidated = lastValidated;
+        }
+
+        @Nonnull
+        Path path() {
+            return path;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Nonnull
+        HttpValidators validators() {
+            return validators;
+        }
+
+        @Nullable
+        String contentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns a read-only view of the contents of the file, or {@code null} if the file is
+         * too large to be cached.
+         */
+        @Nullable
+        ByteBuffer content() {
+            return content == null ? null : content.asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns the precompressed sibling of the file, or {@code null} if there was none.
+         */
+        @Nullable
+        HttpCompression.GzipSibling gzipSibling() {
+            return gzipSibling;
+        }
+
+        private long contentSize() {
+            return content == null ? 0 : size;
+        }
+    }
+}
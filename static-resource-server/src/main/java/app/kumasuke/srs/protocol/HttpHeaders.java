@@ -3,43 +3,76 @@ package app.kumasuke.srs.protocol;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.BiConsumer;
 
 class HttpHeaders {
-    private final Map<String, List<byte[]>> headers;
+    // keyed by the lower-case names, the names are kept in the form they were first put
+    private final Map<String, Field> fields;
 
     HttpHeaders() {
-        headers = new HashMap<>();
+        fields = new LinkedHashMap<>();
     }
 
     void put(@Nonnull String name, @Nullable byte[] value) {
-        final String storeName = name.toLowerCase();
-        final List<byte[]> values = headers.computeIfAbsent(storeName, k -> new ArrayList<>());
-        values.add(value);
+        putField(name.toLowerCase(), name, value);
+    }
+
+    /**
+     * Puts a field whose name is known to be in lower case, as the names in {@link HttpSupport}
+     * are, which saves converting the name.
+     */
+    void putLowerCase(@Nonnull String lowerCaseName, @Nullable byte[] value) {
+        putField(lowerCaseName, lowerCaseName, value);
+    }
+
+    private void putField(String storeName, String name, byte[] value) {
+        Field field = fields.get(storeName);
+        if (field == null) {
+            field = new Field(name);
+            fields.put(storeName, field);
+        }
+        field.values.add(value);
     }
 
     @Nonnull
     List<byte[]> getValues(@Nonnull String name) {
         final String storeName = name.toLowerCase();
-        return Collections.unmodifiableList(headers.getOrDefault(storeName, Collections.emptyList()));
+        final Field field = fields.get(storeName);
+        return field == null ? Collections.emptyList() : Collections.unmodifiableList(field.values);
     }
 
     @Nonnull
     Set<String> getAllNames() {
-        final Set<String> names = headers.keySet()
-                .stream()
-                .map(k -> Arrays.stream(k.split("-"))
-                        .filter(s -> !s.isEmpty())
-                        .map(s -> Character.toUpperCase(s.charAt(0)) + s.substring(1))
-                        .collect(Collectors.joining("-")))
-                .collect(Collectors.toSet());
+        final Set<String> names = new LinkedHashSet<>();
+        for (Field field : fields.values()) {
+            names.add(field.name);
+        }
 
         return Collections.unmodifiableSet(names);
     }
 
+    /**
+     * Performs the given action for each field in the order they were put.
+     */
+    void forEach(@Nonnull BiConsumer<String, List<byte[]>> action) {
+        for (Field field : fields.values()) {
+            action.accept(field.name, field.values);
+        }
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     boolean containsName(@Nonnull String name) {
         final String storeName = name.toLowerCase();
-        return headers.containsKey(storeName);
+        return fields.containsKey(storeName);
+    }
+
+    private static class Field {
+        private final String name;
+        private final List<byte[]> values;
+
+        Field(String name) {
+            this.name = name;
+            this.values = new ArrayList<>(1);
+        }
     }
 }
@@ -4,6 +4,8 @@ import app.kumasuke.srs.ConnectionReader;
 import app.kumasuke.srs.ConnectionWriter;
 import app.kumasuke.srs.ProtocolFactory;
 import app.kumasuke.srs.ProtocolObjectProcessor;
+import app.kumasuke.srs.ServerMetrics;
+import app.kumasuke.srs.util.ByteBufferPool;
 import app.kumasuke.srs.util.Config;
 
 import javax.annotation.Nonnull;
@@ -11,19 +13,20 @@ import javax.annotation.Nonnull;
 public class HttpProtocolFactory implements ProtocolFactory {
     @Nonnull
     @Override
-    public ConnectionReader newConnectionReader() {
-        return new HttpConnectionReader();
+    public ConnectionReader newConnectionReader(@Nonnull ByteBufferPool bufferPool) {
+        return new HttpConnectionReader(bufferPool);
     }
 
     @Nonnull
     @Override
-    public ConnectionWriter newConnectionWriter() {
-        return new HttpConnectionWriter();
+    public ConnectionWriter newConnectionWriter(@Nonnull ByteBufferPool bufferPool) {
+        return new HttpConnectionWriter(bufferPool);
     }
 
     @Nonnull
     @Override
-    public ProtocolObjectProcessor newProtocolObjectProcessor(@Nonnull Config config) {
-        return new HttpProtocolObjectProcessor(config);
+    public ProtocolObjectProcessor newProtocolObjectProcessor(@Nonnull Config config,
+                                                              @Nonnull ServerMetrics metrics) {
+        return new HttpProtocolObjectProcessor(config, metrics);
     }
 }
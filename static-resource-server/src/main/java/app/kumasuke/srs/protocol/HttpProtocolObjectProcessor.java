@@ -1,29 +1,57 @@
 package app.kumasuke.srs.protocol;
 
 import app.kumasuke.srs.AbstractProtocolObjectProcessor;
+import app.kumasuke.srs.FileRegion;
+import app.kumasuke.srs.ServerMetrics;
 import app.kumasuke.srs.util.Config;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import static app.kumasuke.srs.protocol.HttpSupport.*;
 
 public class HttpProtocolObjectProcessor extends AbstractProtocolObjectProcessor {
-    private static final String ALLOWED_HTTP_METHODS = "OPTIONS, GET, HEAD";
+    private static final byte[] ALLOWED_HTTP_METHODS = "OPTIONS, GET, HEAD".getBytes();
+    private static final byte[] ZERO_CONTENT_LENGTH = "0".getBytes();
+    private static final byte[] RETRY_AFTER_SECONDS = "1".getBytes();
     private static final Set<String> DEFAULT_WELCOME_FILES = Set.of("index.html", "index.htm");
-    private static final Set<String> TEXT_FILE_MIMETYPES =
-            Set.of("text/css", "text/html", "text/javascript", "application/javascript", "text/plain");
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    private static final byte[] ACCEPT_RANGES_BYTES = "bytes".getBytes();
+    private static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+    private static final String METRICS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
 
-    HttpProtocolObjectProcessor(@Nonnull Config config) {
-        super(config);
+    private final byte[] serverName;
+    private final HttpFileCache fileCache;
+    private final HttpCompression compression;
+    private final String metricsPath;
+
+    HttpProtocolObjectProcessor(@Nonnull Config config, @Nonnull ServerMetrics metrics) {
+        super(config, metrics);
+        this.serverName = config.getServerName().getBytes();
+        this.metricsPath = config.getMetricsPath();
+        this.fileCache = createFileCache(config);
+        this.compression = new HttpCompression(config.getCompressionCacheMaxSize(),
+                                               config.getCompressionMaxFileSize());
+    }
+
+    private static HttpFileCache createFileCache(Config config) {
+        if (config.getFileCacheMaxSize() > 0) {
+            return new HttpFileCache(config.getFileCacheMaxSize(), config.getFileCacheMaxFileSize(),
+                                     config.getFileCacheRevalidateInterval());
+        } else {
+            return null;
+        }
     }
 
     @Nonnull
@@ -33,94 +61,300 @@ public class HttpProtocolObjectProcessor extends AbstractProtocolObjectProcessor
             final var request = (HttpRequest) object;
 
             final String version = request.version();
-            HttpStatus status;
             final var headers = new HttpHeaders();
-            byte[] body;
 
-            final HttpMethod method = request.method();
+            final HttpResponse response;
             switch (request.method()) {
                 case GET:
                 case HEAD: {
-                    final Path filePath;
-                    try {
-                        filePath = getLocalFilePath(request.requestUri());
-                    } catch (InvalidPathException e) {
-                        status = HttpStatus.BAD_REQUEST;
-                        body = EMPTY_BYTE_ARRAY;
-                        break;
-                    }
-
-                    if (filePath == null) {
-                        status = HttpStatus.NOT_FOUND;
-                        body = EMPTY_BYTE_ARRAY;
+                    if (isMetricsRequest(request)) {
+                        response = processMetrics(request, headers);
+                    } else if (fileCache != null) {
+                        response = processGETOrHEADWithCache(request, headers);
                     } else {
-                        final boolean needBody = (method == HttpMethod.GET);
-                        try {
-                            status = HttpStatus.OK;
-                            body = needBody ? Files.readAllBytes(filePath): EMPTY_BYTE_ARRAY;
-                            putGETHeaders(headers, filePath, needBody);
-                        } catch (IOException e) {
-                            logFileProcessIOException(e, filePath);
-                            body = EMPTY_BYTE_ARRAY;
-                            status = HttpStatus.INTERNAL_SERVER_ERROR;
-                        }
+                        response = processGETOrHEAD(request, headers);
                     }
-
                     break;
                 }
                 case OPTIONS: {
-                    status = HttpStatus.OK;
-                    body = EMPTY_BYTE_ARRAY;
-                    headers.put(HEADER_ALLOW, ALLOWED_HTTP_METHODS.getBytes());
+                    headers.putLowerCase(HEADER_ALLOW, ALLOWED_HTTP_METHODS);
+                    response = new HttpResponse(version, HttpStatus.OK, headers, EMPTY_BYTE_ARRAY);
                     break;
                 }
                 default: {
-                    status = HttpStatus.METHOD_NOT_ALLOWED;
-                    body = EMPTY_BYTE_ARRAY;
+                    response = new HttpResponse(version, HttpStatus.METHOD_NOT_ALLOWED, headers, EMPTY_BYTE_ARRAY);
                     break;
                 }
             }
-            putCommonHeaders(headers);
+            putCommonHeaders(response);
+            metrics.recordStatus(response.status().getStatusCode());
 
-            return new HttpResponse(version, status, headers, body);
+            return response;
         } else {
             throw new AssertionError();
         }
     }
 
-    private void logFileProcessIOException(IOException e, Path filePath) {
-        logger.error("error encountered when reading local file: " + filePath.toString(), e);
+    @Nonnull
+    @Override
+    public Object reject(@Nonnull Object object) {
+        if (object instanceof HttpRequest) {
+            final var request = (HttpRequest) object;
+
+            final var headers = new HttpHeaders();
+            headers.putLowerCase(HEADER_RETRY_AFTER, RETRY_AFTER_SECONDS);
+            final var response = new HttpResponse(request.version(), HttpStatus.SERVICE_UNAVAILABLE, headers,
+                                                  EMPTY_BYTE_ARRAY);
+            putCommonHeaders(response);
+            metrics.recordStatus(response.status().getStatusCode());
+
+            return response;
+        } else {
+            throw new AssertionError();
+        }
     }
 
-    private void putGETHeaders(HttpHeaders headers, Path filePath, boolean withContentLength) throws IOException {
-        if (withContentLength) {
-            final String contentLength = Long.toString(Files.size(filePath));
-            headers.put(HEADER_CONTENT_LENGTH, contentLength.getBytes());
+    private boolean isMetricsRequest(HttpRequest request) {
+        if (metricsPath.isEmpty()) {
+            return false;
         }
 
-        String contentType = Files.probeContentType(filePath);
-        if (contentType != null) {
-            if (TEXT_FILE_MIMETYPES.contains(contentType)) {
-                contentType += "; charset=" + config.getServerDefaultCharset();
+        // ignores the query string, which a collector may append
+        final String requestUri = request.requestUri();
+        return requestUri.startsWith(metricsPath) &&
+                (requestUri.length() == metricsPath.length() || requestUri.charAt(metricsPath.length()) == '?');
+    }
+
+    private HttpResponse processMetrics(HttpRequest request, HttpHeaders headers) {
+        final byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+        putContentHeaders(headers, METRICS_CONTENT_TYPE, body.length);
+
+        final byte[] bodyToSend = request.method() == HttpMethod.HEAD ? EMPTY_BYTE_ARRAY : body;
+        return new HttpResponse(request.version(), HttpStatus.OK, headers, bodyToSend);
+    }
+
+    private HttpResponse processGETOrHEAD(HttpRequest request, HttpHeaders headers) {
+        final String version = request.version();
+
+        final Path filePath;
+        try {
+            filePath = getLocalFilePath(request.requestUri());
+        } catch (InvalidPathException e) {
+            return new HttpResponse(version, HttpStatus.BAD_REQUEST, headers, EMPTY_BYTE_ARRAY);
+        }
+
+        if (filePath == null) {
+            return new HttpResponse(version, HttpStatus.NOT_FOUND, headers, EMPTY_BYTE_ARRAY);
+        }
+
+        final BasicFileAttributes attributes;
+        final String contentType;
+        try {
+            attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            contentType = getContentType(filePath);
+        } catch (IOException e) {
+            logFileProcessIOException(e, filePath);
+            return new HttpResponse(version, HttpStatus.INTERNAL_SERVER_ERROR, headers, EMPTY_BYTE_ARRAY);
+        }
+
+        final var validators = new HttpValidators(attributes.size(), attributes.lastModifiedTime());
+        return processFile(request, headers,
+                           new HttpRepresentation(filePath, attributes.size(), validators, contentType, null, null),
+                           () -> HttpCompression.findGzipSibling(filePath));
+    }
+
+    private HttpResponse processGETOrHEADWithCache(HttpRequest request, HttpHeaders headers) {
+        final String version = request.version();
+        final String requestUri = request.requestUri();
+
+        HttpFileCache.CachedFile file = fileCache.get(requestUri);
+        if (file == null) {
+            final Path filePath;
+            try {
+                filePath = getLocalFilePath(requestUri);
+            } catch (InvalidPathException e) {
+                return new HttpResponse(version, HttpStatus.BAD_REQUEST, headers, EMPTY_BYTE_ARRAY);
+            }
+
+            if (filePath == null) {
+                return new HttpResponse(version, HttpStatus.NOT_FOUND, headers, EMPTY_BYTE_ARRAY);
+            }
+
+            try {
+                file = fileCache.cache(requestUri, filePath, getContentType(filePath));
+            } catch (IOException e) {
+                logFileProcessIOException(e, filePath);
+                return new HttpResponse(version, HttpStatus.INTERNAL_SERVER_ERROR, headers, EMPTY_BYTE_ARRAY);
             }
-            headers.put(HEADER_CONTENT_TYPE, contentType.getBytes());
         }
+
+        return processFile(request, headers,
+                           new HttpRepresentation(file.path(), file.size(), file.validators(), file.contentType(),
+                                                  file.content(), null),
+                           file::gzipSibling);
     }
 
-    private void putCommonHeaders(HttpHeaders headers) {
-        final var serverDate = getServerDateString();
-        headers.put(HEADER_DATE, serverDate.getBytes());
+    /**
+     * Responds with the representation of the given file selected by the Accept-Encoding header,
+     * whose validators and ranges are those of the selected representation.
+     */
+    private HttpResponse processFile(HttpRequest request, HttpHeaders headers, HttpRepresentation identity,
+                                     Supplier<HttpCompression.GzipSibling> gzipSiblingLookup) {
+        final String version = request.version();
 
-        final var serverName = config.getServerName();
-        headers.put(HEADER_SERVER, serverName.getBytes());
+        final HttpRepresentation representation = compression.select(request, identity, gzipSiblingLookup,
+                                                                      headers);
+        final Path filePath = representation.path();
+        final long size = representation.size();
+        final HttpValidators validators = representation.validators();
+        final String contentType = representation.contentType();
+        final ByteBuffer content = representation.content();
 
-        if (!headers.containsName(HEADER_CONTENT_LENGTH)) {
-            headers.put(HEADER_CONTENT_LENGTH, "0".getBytes());
+        validators.putHeaders(headers);
+        if (validators.isNotModified(request)) {
+            return new HttpResponse(version, HttpStatus.NOT_MODIFIED, headers, EMPTY_BYTE_ARRAY);
+        }
+        headers.putLowerCase(HEADER_ACCEPT_RANGES, ACCEPT_RANGES_BYTES);
+        if (representation.contentEncoding() != null) {
+            headers.putLowerCase(HEADER_CONTENT_ENCODING, representation.contentEncoding().getBytes());
         }
+
+        if (request.method() == HttpMethod.HEAD) {
+            putContentHeaders(headers, contentType, size);
+            return new HttpResponse(version, HttpStatus.OK, headers, EMPTY_BYTE_ARRAY);
+        }
+
+        final List<HttpRange> ranges = getRanges(request, size, validators);
+        try {
+            if (ranges == null) {
+                putContentHeaders(headers, contentType, size);
+                return new HttpResponse(version, HttpStatus.OK, headers,
+                                        List.of(openBodyPart(filePath, content, 0, size)));
+            } else if (ranges.isEmpty()) {
+                headers.putLowerCase(HEADER_CONTENT_RANGE, HttpRange.toUnsatisfiedContentRange(size).getBytes());
+                return new HttpResponse(version, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, headers,
+                                        EMPTY_BYTE_ARRAY);
+            } else if (ranges.size() == 1) {
+                final HttpRange range = ranges.get(0);
+                putContentHeaders(headers, contentType, range.length());
+                headers.putLowerCase(HEADER_CONTENT_RANGE, range.toContentRange(size).getBytes());
+                return new HttpResponse(version, HttpStatus.PARTIAL_CONTENT, headers,
+                                        List.of(openBodyPart(filePath, content, range.first(), range.length())));
+            } else {
+                return processMultipleRanges(request, headers, filePath, size, contentType, content, ranges);
+            }
+        } catch (IOException e) {
+            logFileProcessIOException(e, filePath);
+            return new HttpResponse(version, HttpStatus.INTERNAL_SERVER_ERROR, new HttpHeaders(),
+                                    EMPTY_BYTE_ARRAY);
+        }
+    }
+
+    private List<HttpRange> getRanges(HttpRequest request, long size, HttpValidators validators) {
+        final List<byte[]> range = request.headers().getValues(HEADER_RANGE);
+        if (range.size() != 1 || range.get(0) == null || !validators.isRangeApplicable(request)) {
+            return null;
+        }
+
+        return HttpRange.parse(new String(range.get(0), StandardCharsets.ISO_8859_1), size);
+    }
+
+    private HttpResponse processMultipleRanges(HttpRequest request, HttpHeaders headers, Path filePath,
+                                               long size, String contentType, ByteBuffer content,
+                                               List<HttpRange> ranges) throws IOException {
+        /*
+         * multipart/byteranges, see RFC 7233, appendix A:
+         *  each part has its own Content-Type and Content-Range, and the parts are
+         *  separated by the boundary
+         */
+        final String boundary = String.format("%016x", ThreadLocalRandom.current().nextLong());
+
+        final List<Object> bodyParts = new ArrayList<>(ranges.size() * 2 + 1);
+        long contentLength = 0;
+        try {
+            for (HttpRange range : ranges) {
+                final var partHead = new StringBuilder()
+                        .append("\r\n--").append(boundary).append("\r\n");
+                if (contentType != null) {
+                    partHead.append("Content-Type: ").append(contentType).append("\r\n");
+                }
+                partHead.append("Content-Range: ").append(range.toContentRange(size))
+                        .append("\r\n\r\n");
+
+                final byte[] partHeadBytes = partHead.toString().getBytes(StandardCharsets.ISO_8859_1);
+                bodyParts.add(ByteBuffer.wrap(partHeadBytes));
+                bodyParts.add(openBodyPart(filePath, content, range.first(), range.length()));
+                contentLength += partHeadBytes.length + range.length();
+            }
+        } catch (IOException e) {
+            for (Object part : bodyParts) {
+                if (part instanceof FileRegion) {
+                    closeFileBody((FileRegion) part, filePath);
+                }
+            }
+            throw e;
+        }
+
+        final byte[] closeDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        bodyParts.add(ByteBuffer.wrap(closeDelimiter));
+        contentLength += closeDelimiter.length;
+
+        putContentHeaders(headers, MULTIPART_BYTERANGES + boundary, contentLength);
+        return new HttpResponse(request.version(), HttpStatus.PARTIAL_CONTENT, headers, bodyParts);
     }
 
-    private String getServerDateString() {
-        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+    private Object openBodyPart(Path filePath, ByteBuffer content, long position, long count)
+            throws IOException {
+        if (content != null) {
+            // the cached content is less than 2 GiB
+            final ByteBuffer part = content.duplicate();
+            part.limit((int) (position + count));
+            part.position((int) position);
+            return part;
+        } else {
+            // the file body is streamed to the connection by the writer
+            return FileRegion.open(filePath, position, count);
+        }
+    }
+
+    private void logFileProcessIOException(IOException e, Path filePath) {
+        logger.error("error encountered when reading local file: " + filePath.toString(), e);
+    }
+
+    private void closeFileBody(FileRegion fileBody, Path filePath) {
+        if (fileBody != null) {
+            try {
+                fileBody.close();
+            } catch (IOException e) {
+                logFileProcessIOException(e, filePath);
+            }
+        }
+    }
+
+    private void putContentHeaders(HttpHeaders headers, String contentType, long contentLength) {
+        headers.putLowerCase(HEADER_CONTENT_LENGTH, Long.toString(contentLength).getBytes());
+        if (contentType != null) {
+            headers.putLowerCase(HEADER_CONTENT_TYPE, contentType.getBytes());
+        }
+    }
+
+    private String getContentType(Path filePath) throws IOException {
+        String contentType = Files.probeContentType(filePath);
+        if (contentType != null && TEXT_FILE_MIMETYPES.contains(contentType)) {
+            contentType += "; charset=" + config.getServerDefaultCharset();
+        }
+        return contentType;
+    }
+
+    private void putCommonHeaders(HttpResponse response) {
+        final HttpHeaders headers = response.headers();
+        headers.putLowerCase(HEADER_DATE, HttpDate.now());
+        headers.putLowerCase(HEADER_SERVER, serverName);
+
+        // a 304 response has no body, and its Content-Length would describe the selected representation
+        if (response.status() != HttpStatus.NOT_MODIFIED && !headers.containsName(HEADER_CONTENT_LENGTH)) {
+            headers.putLowerCase(HEADER_CONTENT_LENGTH, ZERO_CONTENT_LENGTH);
+        }
     }
 
     private Path getLocalFilePath(String requestUri) {
@@ -0,0 +1,164 @@
+package app.kumasuke.srs.protocol;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a representation, see RFC 7233.
+ */
+class HttpRange {
+    // more ranges are unlikely to come from a legitimate client, such requests are served in full
+    static final int MAX_RANGE_COUNT = 16;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+
+    private HttpRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the value of a Range header against a representation of the given size.
+     *
+     * @return the satisfiable ranges in ascending order with the overlapping or adjacent ones
+     * coalesced, an empty list if none of the ranges is satisfiable, or {@code null} if the
+     * header should be ignored
+     */
+    @Nullable
+    static List<HttpRange> parse(@Nonnull String value, long size) {
+        /*
+         * Range = byte-ranges-specifier
+         *  byte-ranges-specifier = bytes-unit "=" byte-range-set
+         *  byte-range-set  = 1#( byte-range-spec / suffix-byte-range-spec )
+         *  byte-range-spec = first-byte-pos "-" [ last-byte-pos ]
+         *  suffix-byte-range-spec = "-" suffix-length
+         */
+        value = value.trim();
+        if (!value.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;    // an unsupported range unit
+        }
+
+        final String[] specs = value.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGE_COUNT) {
+            return null;
+        }
+
+        final List<HttpRange> result = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            final int hyphen = spec.indexOf('-');
+            if (hyphen < 0) {
+                return null;
+            }
+
+            final long first, last;
+            try {
+                if (hyphen == 0) {  // suffix-byte-range-spec
+                    final long suffixLength = parsePosition(spec.substring(1));
+                    if (suffixLength == 0) {
+                        continue;   // unsatisfiable
+                    }
+                    first = Math.max(size - suffixLength, 0);
+                    last = size - 1;
+                } else {
+                    first = parsePosition(spec.substring(0, hyphen));
+                    final String lastStr = spec.substring(hyphen + 1);
+                    if (lastStr.isEmpty()) {
+                        last = size - 1;
+                    } else {
+                        final long lastPosition = parsePosition(lastStr);
+                        if (lastPosition < first) {
+                            return null;    // an invalid byte-range-spec makes the whole header invalid
+                        }
+                        last = Math.min(lastPosition, size - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (first < size) {
+                result.add(new HttpRange(first, last));
+            }
+        }
+
+        if (result.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // the same bytes requested over and over again are served once in a full response
+        long totalLength = 0;
+        for (HttpRange range : result) {
+            totalLength += range.length();
+        }
+        if (totalLength > size) {
+            return null;
+        }
+
+        return coalesce(result);
+    }
+
+    private static List<HttpRange> coalesce(List<HttpRange> ranges) {
+        if (ranges.size() == 1) {
+            return ranges;
+        }
+
+        ranges.sort(Comparator.comparingLong(HttpRange::first));
+
+        final List<HttpRange> result = new ArrayList<>(ranges.size());
+        HttpRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            final HttpRange next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new HttpRange(current.first, Math.max(current.last, next.last));
+            } else {
+                result.add(current);
+                current = next;
+            }
+        }
+        result.add(current);
+        return result;
+    }
+
+    private static long parsePosition(String value) {
+        if (value.isEmpty() || !Character.isDigit(value.charAt(0))) {
+            throw new NumberFormatException();
+        }
+        return Long.parseLong(value);
+    }
+
+    long first() {
+        return first;
+    }
+
+    long last() {
+        return last;
+    }
+
+    long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header of this range.
+     */
+    @Nonnull
+    String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * Returns the value of the Content-Range header of a 416 response.
+     */
+    @Nonnull
+    static String toUnsatisfiedContentRange(long size) {
+        return "bytes */" + size;
+    }
+}
@@ -0,0 +1,69 @@
+package app.kumasuke.srs.protocol;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * A representation of a file to be sent, which is either the file itself or one of its
+ * content-coded variants.
+ */
+class HttpRepresentation {
+    private final Path path;
+    private final long size;
+    private final HttpValidators validators;
+    private final String contentType;
+    private final ByteBuffer content;
+    private final String contentEncoding;
+
+    HttpRepresentation(@Nonnull Path path, long size, @Nonnull HttpValidators validators,
+                       @Nullable String contentType, @Nullable ByteBuffer content,
+                       @Nullable String contentEncoding) {
+        this.path = path;
+        this.size = size;
+        this.validators = validators;
+        this.contentType = contentType;
+        this.content = content;
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Returns the path of the file whose contents are this representation.
+     */
+    @Nonnull
+    Path path() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    @Nonnull
+    HttpValidators validators() {
+        return validators;
+    }
+
+    @Nullable
+    String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the contents of this representation held in memory, or {@code null} if they
+     * should be transferred from the file.
+     */
+    @Nullable
+    ByteBuffer content() {
+        return content;
+    }
+
+    /**
+     * Returns the content coding of this representation, or {@code null} if it is not encoded.
+     */
+    @Nullable
+    String contentEncoding() {
+        return contentEncoding;
+    }
+}
@@ -0,0 +1,273 @@
+package app.kumasuke.srs.protocol;
+
+import app.kumasuke.srs.IllegalMessageException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static app.kumasuke.srs.protocol.HttpSupport.HEADER_CONTENT_LENGTH;
+import static app.kumasuke.srs.protocol.HttpSupport.HEADER_HOST;
+
+/**
+ * A resumable parser of http requests, which works directly on the bytes of a {@link ByteBuffer}.
+ * <p>
+ * The parser remembers how far it has scanned, so that the bytes of a partially received request
+ * will never be scanned twice. All the positions it keeps are relative to the position of the
+ * buffer, hence the buffer could be compacted between two parsings as long as the unconsumed
+ * bytes are kept.
+ */
+class HttpRequestParser {
+    static final int MAX_REQUEST_HEAD_SIZE = 16 * 1024;     // 16 KiB
+    static final int MAX_REQUEST_BODY_SIZE = 1024 * 1024;   // 1 MiB
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final byte[][] METHOD_NAMES = encodeMethodNames();
+    private static final byte[] VERSION_PREFIX = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    private State state;
+    private int scanIndex;          // the next byte to be scanned
+    private int startOfLine;        // the first byte of the current line
+
+    private HttpMethod method;
+    private String requestUri;
+    private String version;
+    private HttpHeaders headers;
+    private int contentLength;
+    private int endOfHeaders;
+
+    HttpRequestParser() {
+        reset();
+    }
+
+    private static byte[][] encodeMethodNames() {
+        final var result = new byte[METHODS.length][];
+        for (int i = 0; i < METHODS.length; i++) {
+            result[i] = METHODS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the next request from the remaining bytes of the given buffer, the position
+     * of the buffer will be moved to the end of the request if there is a complete one.
+     *
+     * @return the parsed request, or {@code null} if more bytes are needed
+     * @throws IllegalMessageException if the bytes cannot be parsed as a http request
+     */
+    @Nullable
+    HttpRequest parse(@Nonnull ByteBuffer src) {
+        final int base = src.position();
+        final int length = src.remaining();
+
+        while (state != State.BODY) {
+            final int endOfLine = findNextEndOfLine(src, base, length);
+            if (endOfLine == HttpSupport.POSITION_NOT_FOUND) {
+                if (length > MAX_REQUEST_HEAD_SIZE) {
+                    throw new IllegalMessageException("Request head is too large");
+                }
+                return null;
+            }
+
+            // the line excludes the trailing CRLF
+            final int lineLength = endOfLine - 2 - startOfLine;
+            if (state == State.REQUEST_LINE) {
+                parseRequestLine(src, base + startOfLine, lineLength);
+                state = State.HEADERS;
+            } else if (lineLength == 0) {
+                endOfHeaders = endOfLine;
+                state = State.BODY;
+            } else {
+                parseHeader(src, base + startOfLine, lineLength);
+            }
+            startOfLine = endOfLine;
+        }
+
+        // message-body
+        final int endOfRequest = endOfHeaders + contentLength;
+        if (length < endOfRequest) {
+            return null;
+        }
+
+        final byte[] body;
+        if (contentLength == 0) {
+            body = EMPTY_BYTE_ARRAY;
+        } else {
+            body = copy(src, base + endOfHeaders, base + endOfRequest);
+        }
+        final var request = createNewRequest(body);
+
+        src.position(base + endOfRequest);
+        reset();
+
+        return request;
+    }
+
+    private int findNextEndOfLine(ByteBuffer src, int base, int length) {
+        // starts from the byte before the scan index, in case the CR has been scanned
+        for (int i = Math.max(scanIndex - 1, startOfLine); i < length - 1; i++) {
+            if (src.get(base + i) == '\r' && src.get(base + i + 1) == '\n') {
+                scanIndex = i + 2;
+                return scanIndex;   // position after the last byte of current line
+            }
+        }
+
+        scanIndex = length;
+        return HttpSupport.POSITION_NOT_FOUND;
+    }
+
+    private void parseRequestLine(ByteBuffer src, int start, int length) {
+        /*
+         * Request-Line:
+         *  Request-Line = Method SP Request-URI SP HTTP-Version CRLF
+         */
+        final int end = start + length;
+
+        final int endOfMethod = indexOf(src, start, end, (byte) ' ');
+        if (endOfMethod == HttpSupport.POSITION_NOT_FOUND) {
+            throw new IllegalMessageException("Cannot parse request as http request");
+        }
+        method = parseMethod(src, start, endOfMethod);
+
+        final int startOfUri = endOfMethod + 1;
+        final int endOfUri = indexOf(src, startOfUri, end, (byte) ' ');
+        if (endOfUri == HttpSupport.POSITION_NOT_FOUND || endOfUri == startOfUri) {
+            throw new IllegalMessageException("Cannot parse request uri from request");
+        }
+        requestUri = decode(src, startOfUri, endOfUri);
+
+        final int startOfVersion = endOfUri + 1 + VERSION_PREFIX.length;
+        if (startOfVersion >= end || !regionMatches(src, endOfUri + 1, VERSION_PREFIX)) {
+            throw new IllegalMessageException("Cannot parse http version from request");
+        }
+        version = decode(src, startOfVersion, end);
+    }
+
+    private HttpMethod parseMethod(ByteBuffer src, int start, int end) {
+        for (int i = 0; i < METHODS.length; i++) {
+            final byte[] name = METHOD_NAMES[i];
+            if (name.length == end - start && regionMatches(src, start, name)) {
+                return METHODS[i];
+            }
+        }
+
+        throw new IllegalMessageException("Cannot parse http method from request");
+    }
+
+    private void parseHeader(ByteBuffer src, int start, int length) {
+        /*
+         * message-header = field-name ":" [ field-value ]
+         */
+        final int end = start + length;
+        final int colon = indexOf(src, start, end, (byte) ':');
+        if (colon == HttpSupport.POSITION_NOT_FOUND) {
+            throw new IllegalMessageException("Cannot parse http headers from request");
+        }
+
+        final String fieldName = decode(src, start, colon);
+
+        // trims the leading and trailing white spaces of the field value
+        int startOfValue = colon + 1;
+        int endOfValue = end;
+        while (startOfValue < endOfValue && isWhitespace(src.get(startOfValue))) startOfValue++;
+        while (endOfValue > startOfValue && isWhitespace(src.get(endOfValue - 1))) endOfValue--;
+
+        final byte[] fieldValue = copy(src, startOfValue, endOfValue);
+        headers.put(fieldName, fieldValue);
+
+        if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(fieldName)) {
+            contentLength = parseContentLength(fieldValue);
+        }
+    }
+
+    private int parseContentLength(byte[] fieldValue) {
+        long result = 0;
+        for (byte b : fieldValue) {
+            if (b < '0' || b > '9') {
+                throw new IllegalMessageException("Cannot parse content length from request");
+            }
+
+            result = result * 10 + (b - '0');
+            if (result > MAX_REQUEST_BODY_SIZE) {
+                throw new IllegalMessageException("Request body is too large");
+            }
+        }
+        return (int) result;
+    }
+
+    private HttpRequest createNewRequest(byte[] body) {
+        // converts the absolute url to a relative url with an additional Host header
+        final int endOfScheme = requestUri.indexOf("://");
+        if (requestUri.charAt(0) != '/' && endOfScheme > 0) {
+            final int startOfHost = endOfScheme + 3;
+            final int startOfPath = requestUri.indexOf('/', startOfHost);
+            if (startOfPath > startOfHost) {
+                final String mayBeHost = requestUri.substring(startOfHost, startOfPath);
+                requestUri = requestUri.substring(startOfPath);
+                if (!headers.containsName(HEADER_HOST)) {
+                    headers.putLowerCase(HEADER_HOST, mayBeHost.getBytes());
+                }
+            }
+        }
+
+        return new HttpRequest(method, requestUri, version, headers, body);
+    }
+
+    private void reset() {
+        state = State.REQUEST_LINE;
+        scanIndex = 0;
+        startOfLine = 0;
+        method = null;
+        requestUri = null;
+        version = null;
+        headers = new HttpHeaders();
+        contentLength = 0;
+        endOfHeaders = 0;
+    }
+
+    private static int indexOf(ByteBuffer src, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (src.get(i) == b) {
+                return i;
+            }
+        }
+        return HttpSupport.POSITION_NOT_FOUND;
+    }
+
+    private static boolean regionMatches(ByteBuffer src, int start, byte[] bytes) {
+        if (start + bytes.length > src.limit()) {
+            return false;
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            if (src.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer src, int start, int end) {
+        return new String(copy(src, start, end), StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] copy(ByteBuffer src, int start, int end) {
+        final var bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = src.get(start + i);
+        }
+        return bytes;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private enum State {
+        REQUEST_LINE,
+        HEADERS,
+        BODY
+    }
+}
@@ -1,21 +1,58 @@
 package app.kumasuke.srs.protocol;
 
+import app.kumasuke.srs.FileRegion;
+
 import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
 class HttpResponse {
     private final String version;
     private final HttpStatus status;
     private final HttpHeaders headers;
-    private final byte[] body;
+    private final List<Object> bodyParts;
 
     HttpResponse(@Nonnull String version,
                  @Nonnull HttpStatus status,
                  @Nonnull HttpHeaders headers,
                  @Nonnull byte[] body) {
+        this(version, status, headers,
+             body.length == 0 ? Collections.emptyList() : List.of(ByteBuffer.wrap(body)));
+    }
+
+    HttpResponse(@Nonnull String version,
+                 @Nonnull HttpStatus status,
+                 @Nonnull HttpHeaders headers,
+                 @Nonnull ByteBuffer bufferBody) {
+        this(version, status, headers, List.of(bufferBody));
+    }
+
+    HttpResponse(@Nonnull String version,
+                 @Nonnull HttpStatus status,
+                 @Nonnull HttpHeaders headers,
+                 @Nonnull FileRegion fileBody) {
+        this(version, status, headers, List.of(fileBody));
+    }
+
+    /**
+     * Creates a response whose body consists of the given parts, each of which must be
+     * a {@link ByteBuffer} or a {@link FileRegion}.
+     */
+    HttpResponse(@Nonnull String version,
+                 @Nonnull HttpStatus status,
+                 @Nonnull HttpHeaders headers,
+                 @Nonnull List<?> bodyParts) {
+        for (Object part : bodyParts) {
+            if (!(part instanceof ByteBuffer) && !(part instanceof FileRegion)) {
+                throw new IllegalArgumentException("Unsupported body part: " + part);
+            }
+        }
+
         this.version = version;
         this.status = status;
         this.headers = headers;
-        this.body = body;
+        this.bodyParts = Collections.unmodifiableList(bodyParts);
     }
 
     @Nonnull
@@ -33,8 +70,13 @@ class HttpResponse {
         return headers;
     }
 
+    /**
+     * Returns the parts of the body in the order they should be written, the contents of a
+     * {@link ByteBuffer} part are written from the buffer, while the ones of a {@link FileRegion}
+     * part are transferred from the file.
+     */
     @Nonnull
-    byte[] body() {
-        return body;
+    List<Object> bodyParts() {
+        return bodyParts;
     }
 }
@@ -1,340 +1,143 @@
 package app.kumasuke.srs.protocol;
 
-import app.kumasuke.srs.IllegalMessageException;
-import app.kumasuke.srs.util.DynamicByteBuffer;
-
 import javax.annotation.Nonnull;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 class HttpSupport {
     static final int POSITION_NOT_FOUND = -1;
 
-    static final String HEADER_CONTENT_LENGTH = "Content-Length";
-    static final String HEADER_CONTENT_TYPE = "Content-Type";
-    static final String HEADER_SERVER = "Sever";
-    static final String HEADER_DATE = "Date";
-    static final String HEADER_ALLOW = "Allow";
-
-    private static final String HEADER_HOST = "Host";
+    // in lower case as the fields are keyed, so they are put without being converted,
+    // the headers put by this server are still written in their canonical forms
+    static final String HEADER_CONTENT_LENGTH = "content-length";
+    static final String HEADER_CONTENT_TYPE = "content-type";
+    static final String HEADER_SERVER = "server";
+    static final String HEADER_DATE = "date";
+    static final String HEADER_ALLOW = "allow";
+    static final String HEADER_HOST = "host";
+    static final String HEADER_ETAG = "etag";
+    static final String HEADER_LAST_MODIFIED = "last-modified";
+    static final String HEADER_IF_NONE_MATCH = "if-none-match";
+    static final String HEADER_IF_MODIFIED_SINCE = "if-modified-since";
+    static final String HEADER_ACCEPT_RANGES = "accept-ranges";
+    static final String HEADER_CONTENT_RANGE = "content-range";
+    static final String HEADER_RANGE = "range";
+    static final String HEADER_IF_RANGE = "if-range";
+    static final String HEADER_ACCEPT_ENCODING = "accept-encoding";
+    static final String HEADER_CONTENT_ENCODING = "content-encoding";
+    static final String HEADER_VARY = "vary";
+    static final String HEADER_RETRY_AFTER = "retry-after";
+
+    static final Set<String> TEXT_FILE_MIMETYPES =
+            Set.of("text/css", "text/html", "text/javascript", "application/javascript", "text/plain");
 
-    private static final byte[] BYTES_SPACE = " ".getBytes();
     private static final byte[] BYTES_CRLF = "\r\n".getBytes();
-    private static final byte[] BYTES_COLON = ":".getBytes();
-
-    @Nonnull
-    static byte[] toBytes(@Nonnull HttpResponse response) {
-        /*
-         * Http Response Structure:
-         * Response = Status-Line
-         *            *(( general-header
-         *              | response-header
-         *              | entity-header ) CRLF)  ; message-headers
-         *             CRLF
-         *             [ message-body ]
-         * See Also: https://tools.ietf.org/html/rfc2616
-         */
 
-        final var buffer = new DynamicByteBuffer();
+    private static final String VERSION_1_0 = "1.0";
+    private static final String VERSION_1_1 = "1.1";
+    private static final byte[][] STATUS_LINES_1_0 = encodeStatusLines(VERSION_1_0);
+    private static final byte[][] STATUS_LINES_1_1 = encodeStatusLines(VERSION_1_1);
 
-        // Status-Line
-        appendStatusLine(buffer, response);
+    // the encoded 'field-name: ' of the headers which are put by this server, keyed by their
+    // lower-case names
+    private static final Map<String, byte[]> HEADER_NAME_PREFIXES = encodeHeaderNamePrefixes(
+            "Content-Length", "Content-Type", "Server", "Date", "Allow", "ETag", "Last-Modified",
+            "Accept-Ranges", "Content-Range", "Content-Encoding", "Vary", "Retry-After");
 
-        // message-headers
-        appendHeaders(buffer, response);
-        buffer.append(BYTES_CRLF);
-
-        // message-body
-        buffer.append(response.body());
-
-        return buffer.toByteArray();
+    private static byte[][] encodeStatusLines(String version) {
+        final HttpStatus[] statuses = HttpStatus.values();
+        final byte[][] result = new byte[statuses.length][];
+        for (HttpStatus status : statuses) {
+            result[status.ordinal()] = encodeStatusLine(version, status);
+        }
+        return result;
     }
 
-    private static void appendStatusLine(DynamicByteBuffer dst, HttpResponse response) {
+    private static byte[] encodeStatusLine(String version, HttpStatus status) {
         /*
          * Status-Line:
          *  Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF
          */
-        dst.append(("HTTP/" + response.version()).getBytes());
-        dst.append(BYTES_SPACE);
-        final var status = response.status();
-        final var statusCodeStr = Integer.toString(status.getStatusCode());
-        dst.append(statusCodeStr.getBytes());
-        dst.append(BYTES_SPACE);
-        dst.append(status.getReasonPhrase().getBytes());
-        dst.append(BYTES_CRLF);
-    }
-
-    private static void appendHeaders(DynamicByteBuffer dst, HttpResponse response) {
-        final var headers = response.headers();
-        for (String fieldName : headers.getAllNames()) {
-            for (byte[] value : headers.getValues(fieldName)) {
-                dst.append(fieldName.getBytes());
-                dst.append(BYTES_COLON);
-                dst.append(BYTES_SPACE);
-                dst.append(value);
-                dst.append(BYTES_CRLF);
-            }
-        }
-    }
-
-    @Nonnull
-    static HttpRequest parseRequest(@Nonnull DynamicByteBuffer src) {
-        /*
-         * Http Request Structure:
-         *  Request = Request-Line
-         *            *(( general-header
-         *             | request-header
-         *             | entity-header ) CRLF)  ; message-headers
-         *            CRLF
-         *            [ message-body ]
-         * See Also: https://tools.ietf.org/html/rfc2616
-         */
-
-        /*
-         * Request-Line:
-         *  Request-Line = Method SP Request-URI SP HTTP-Version CRLF
-         */
-        final int endOfRequestLine = findNextEndOfLine(src, 0);
-        if (endOfRequestLine == POSITION_NOT_FOUND) {
-            throw new IllegalMessageException("Cannot parse request as http request");
-        }
-        final HttpMethod method = parseHttpMethod(src);
-        final String requestUri = parseRequestUri(src);
-        final String version = parseVersion(src);
-
-        // message-headers
-        final int endOfHeaders = findNextEndOfHeaders(src, endOfRequestLine);
-        if (endOfHeaders == POSITION_NOT_FOUND) {
-            throw new IllegalMessageException("Cannot parse http headers from request");
-        }
-        final HttpHeaders headers = parseHttpHeaders(src, endOfRequestLine, endOfHeaders);
-        final int contentLength = parseContentLength(src, endOfRequestLine, endOfHeaders);
-
-        // message-body
-        final byte[] body = contentLength == 0 ? new byte[0] : src.get(endOfHeaders, contentLength);
-        return createNewRequest(method, requestUri, version, headers, body);
-    }
-
-    private static HttpMethod parseHttpMethod(DynamicByteBuffer src) {
-        for (HttpMethod method : HttpMethod.values()) {
-            if (headMatches(src, 0, method.name(), true)) {
-                return method;
-            }
-        }
-
-        throw new IllegalMessageException("Cannot parse http method from request");
-    }
-
-    private static String parseRequestUri(DynamicByteBuffer src) {
-        final var builder = new StringBuilder();
-
-        boolean metFirstSpace = false;
-        for (int i = 0; i < src.length(); i++) {
-            final byte c = src.get(i);
-            if (Character.isSpaceChar(c)) {
-                if (metFirstSpace) {
-                    break;
-                } else {
-                    metFirstSpace = true;
-                }
-            } else if (metFirstSpace) {
-                builder.appendCodePoint(c);
-            }
-        }
-
-        if (builder.length() == 0) {
-            throw new IllegalMessageException("Cannot parse request uri from request");
-        } else {
-            return builder.toString();
-        }
-    }
-
-    private static String parseVersion(DynamicByteBuffer src) {
-        final String anchor = " HTTP/";
-        final var builder = new StringBuilder();
-
-        boolean append = false;
-        for (int i = 0; i < src.length(); i++) {
-            final byte c = src.get(i);
-
-            if (append) {
-                if (Character.isDigit(c) || c == '.') {
-                    builder.appendCodePoint(c);
-                } else {
-                    break;
-                }
-            }
-
-            if (anchor.charAt(0) == c && headMatches(src, i, anchor, true)) {
-                i += anchor.length() - 1;
-                append = true;
-            }
-        }
-
-        if (builder.length() == 0) {
-            throw new IllegalMessageException("Cannot parse http version from request");
-        } else {
-            return builder.toString();
-        }
+        final String statusLine = "HTTP/" + version + " " + status.getStatusCode() + " " +
+                status.getReasonPhrase() + "\r\n";
+        return statusLine.getBytes(StandardCharsets.ISO_8859_1);
     }
 
-    private static HttpHeaders parseHttpHeaders(DynamicByteBuffer src, int startIndex, int endIndex) {
-        /*
-         * message-header = field-name ":" [ field-value ]
-         * field-name     = token
-         * field-value    = *( field-content | LWS )
-         * field-content  = <the OCTETs making up the field-value
-         *                  and consisting of either *TEXT or combinations
-         *                  of token, separators, and quoted-string>
-         */
-
-        final StringBuilder fieldNameBuilder = new StringBuilder();
-
-        final HttpHeaders result = new HttpHeaders();
-
-        for (int i = startIndex; i < endIndex; ) {
-            final int nextEndOfLine = findNextEndOfLine(src, i);
-
-            for (int j = i; j < nextEndOfLine; j++) {
-                final byte c = src.get(j);
-                if (c == ':') {
-                    final String fieldName = fieldNameBuilder.toString();
-                    final int valueLength = nextEndOfLine - j - 1;
-                    final byte[] fieldValue = src.get(j + 1, valueLength);
-                    result.put(fieldName, fieldValue);
-                } else {
-                    fieldNameBuilder.appendCodePoint(c);
-                }
-            }
-
-            fieldNameBuilder.setLength(0);
-            i = nextEndOfLine;
+    private static Map<String, byte[]> encodeHeaderNamePrefixes(String... names) {
+        final Map<String, byte[]> result = new HashMap<>();
+        for (String name : names) {
+            result.put(name.toLowerCase(), encodeHeaderNamePrefix(name));
         }
-
-        return result;
+        return Map.copyOf(result);
     }
 
-    private static HttpRequest createNewRequest(HttpMethod method,
-                                                String requestUri,
-                                                String version,
-                                                HttpHeaders headers,
-                                                byte[] body) {
-        // converts the absolute url to a relative url with an additional Host header
-        if (requestUri.matches("^.+?://[^/]+/.*$")) {
-            final String mayBeHost = requestUri.replaceAll("^.+?://([^/]+)/.*$", "$1");
-            requestUri = requestUri.replaceAll("^.+?://[^/]+(/.*)$", "$1");
-            if (!headers.containsName(HEADER_HOST)) {
-                headers.put(HEADER_HOST, mayBeHost.getBytes());
-            }
-        }
-
-        return new HttpRequest(method, requestUri, version, headers, body);
+    private static byte[] encodeHeaderNamePrefix(String name) {
+        return (name + ": ").getBytes(StandardCharsets.ISO_8859_1);
     }
 
-    static int findNextEndOfRequest(@Nonnull DynamicByteBuffer src) {
+    /**
+     * Encodes the status line and the headers of the given response into the given buffer.
+     *
+     * @return {@code false} if there is not enough room in the buffer, in which case the
+     * contents of the buffer are undefined
+     */
+    static boolean encodeHead(@Nonnull HttpResponse response, @Nonnull ByteBuffer dst) {
         /*
-         * Http Request Structure:
-         *  Request = Request-Line
+         * Http Response Structure:
+         * Response = Status-Line
          *            *(( general-header
-         *             | request-header
-         *             | entity-header ) CRLF)  ; message-headers
-         *            CRLF
-         *            [ message-body ]
+         *              | response-header
+         *              | entity-header ) CRLF)  ; message-headers
+         *             CRLF
+         *             [ message-body ]
          * See Also: https://tools.ietf.org/html/rfc2616
          */
 
-        // Request-Line
-        final int endOfRequestLine = findNextEndOfLine(src, 0);
-        if (endOfRequestLine == POSITION_NOT_FOUND) return POSITION_NOT_FOUND;
-
-        // message-headers
-        final int endOfHeaders = findNextEndOfHeaders(src, endOfRequestLine);
-        if (endOfHeaders == POSITION_NOT_FOUND) return POSITION_NOT_FOUND;
-
-        final int contentLength = parseContentLength(src, endOfRequestLine, endOfHeaders);
-
-        // message-body
-        if (contentLength == 0) {
-            return endOfHeaders;
-        } else {
-            final int expectedEndOfRequest = endOfHeaders + contentLength;
-            if (src.length() >= expectedEndOfRequest) {
-                return expectedEndOfRequest;
-            } else {
-                return POSITION_NOT_FOUND;
-            }
-        }
-    }
-
-    private static int findNextEndOfLine(DynamicByteBuffer src, int startIndex) {
-        for (int i = startIndex; i < src.length() - 1; i++) {
-            if (src.get(i) == '\r' && src.get(i + 1) == '\n') {
-                return i + 2;   // position after the last byte of current line
-            }
-        }
-
-        return POSITION_NOT_FOUND;
-    }
+        try {
+            // Status-Line
+            appendStatusLine(dst, response);
 
-    private static int findNextEndOfHeaders(DynamicByteBuffer src, int startIndex) {
-        int prevEndOfLine = findNextEndOfLine(src, startIndex);
-        while (prevEndOfLine != POSITION_NOT_FOUND) {
-            int nextEndOfLine = findNextEndOfLine(src, prevEndOfLine);
-            if (nextEndOfLine != POSITION_NOT_FOUND) {
-                if (prevEndOfLine + 2 == nextEndOfLine) {   // current line is empty
-                    return nextEndOfLine;
-                } else {
-                    prevEndOfLine = nextEndOfLine;
-                }
-            }
+            // message-headers
+            appendHeaders(dst, response);
+            dst.put(BYTES_CRLF);
+        } catch (BufferOverflowException e) {
+            return false;
         }
 
-        return POSITION_NOT_FOUND;
+        return true;
     }
 
-    private static int parseContentLength(DynamicByteBuffer src, int startIndex, int endIndex) {
-        final byte[] fieldValue = findFieldValueByFieldName(src, startIndex, endIndex, HEADER_CONTENT_LENGTH);
-        if (fieldValue.length == 0) {
-            return 0;
-        } else {
-            final String fieldValueStr = new String(fieldValue);
-            try {
-                return Integer.parseInt(fieldValueStr.trim());
-            } catch (NumberFormatException e) {
-                return 0;
-            }
+    private static void appendStatusLine(ByteBuffer dst, HttpResponse response) {
+        final HttpStatus status = response.status();
+        switch (response.version()) {
+            case VERSION_1_1:
+                dst.put(STATUS_LINES_1_1[status.ordinal()]);
+                break;
+            case VERSION_1_0:
+                dst.put(STATUS_LINES_1_0[status.ordinal()]);
+                break;
+            default:
+                dst.put(encodeStatusLine(response.version(), status));
+                break;
         }
     }
 
-    private static byte[] findFieldValueByFieldName(DynamicByteBuffer src, int startIndex, int endIndex,
-                                                    @SuppressWarnings("SameParameterValue") String fieldName) {
-        for (int i = startIndex; i < endIndex; ) {
-            final int nextEndOfLine = findNextEndOfLine(src, i);
-
-            assert nextEndOfLine != POSITION_NOT_FOUND;
-            if (headMatches(src, i, fieldName, false)) {
-                final int valueStartIndex = i + fieldName.length() + 1;      // adds 1 to skip colon
-                final int valueLength = nextEndOfLine - 1 - valueStartIndex;
-                return src.get(valueStartIndex, valueLength);
+    private static void appendHeaders(ByteBuffer dst, HttpResponse response) {
+        response.headers().forEach((fieldName, values) -> {
+            byte[] namePrefix = HEADER_NAME_PREFIXES.get(fieldName);
+            if (namePrefix == null) {
+                namePrefix = encodeHeaderNamePrefix(fieldName);
             }
 
-            i = nextEndOfLine;
-        }
-
-        return new byte[0];
-    }
-
-    private static boolean headMatches(DynamicByteBuffer src, int startIndex, String head,
-                                       boolean caseSensitive) {
-        final var headBytes = caseSensitive ? head.getBytes() : head.toLowerCase().getBytes();
-        for (int i = startIndex; i < src.length() && i - startIndex < headBytes.length; i++) {
-            final char srcChar = caseSensitive ? (char) src.get(i) : Character.toLowerCase((char) src.get(i));
-            final char fieldChar = (char) headBytes[i - startIndex];
-
-            if (srcChar != fieldChar) {
-                return false;
+            for (byte[] value : values) {
+                dst.put(namePrefix);
+                dst.put(value);
+                dst.put(BYTES_CRLF);
             }
-        }
-
-        return true;
+        });
     }
 }
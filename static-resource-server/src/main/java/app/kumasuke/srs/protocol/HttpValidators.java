@@ -0,0 +1,135 @@
+package app.kumasuke.srs.protocol;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static app.kumasuke.srs.protocol.HttpSupport.*;
+
+/**
+ * The validators of a file, namely its entity tag and last modified date, which are derived
+ * from the size and the last modified time of the file.
+ */
+class HttpValidators {
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY_ENTITY_TAG = "*";
+
+    private final String eTag;
+    private final byte[] eTagBytes;
+    private final long lastModifiedSecond;
+    private final byte[] lastModifiedBytes;
+
+    HttpValidators(long size, @Nonnull FileTime lastModified) {
+        final long lastModifiedMillis = lastModified.toMillis();
+        this.eTag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModifiedMillis) + '"';
+        this.eTagBytes = eTag.getBytes(StandardCharsets.US_ASCII);
+        this.lastModifiedSecond = TimeUnit.MILLISECONDS.toSeconds(lastModifiedMillis);
+        this.lastModifiedBytes = HttpDate.format(lastModifiedSecond).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private HttpValidators(String eTag, long lastModifiedSecond, byte[] lastModifiedBytes) {
+        this.eTag = eTag;
+        this.eTagBytes = eTag.getBytes(StandardCharsets.US_ASCII);
+        this.lastModifiedSecond = lastModifiedSecond;
+        this.lastModifiedBytes = lastModifiedBytes;
+    }
+
+    /**
+     * Returns the validators of a content-coded variant of the file, whose entity tag differs
+     * from that of the file, since the variant is a different representation.
+     */
+    @Nonnull
+    HttpValidators forContentEncoding(@Nonnull String contentEncoding) {
+        final String variantETag = eTag.substring(0, eTag.length() - 1) + '-' + contentEncoding + '"';
+        return new HttpValidators(variantETag, lastModifiedSecond, lastModifiedBytes);
+    }
+
+    @Nonnull
+    String eTag() {
+        return eTag;
+    }
+
+    void putHeaders(@Nonnull HttpHeaders headers) {
+        headers.putLowerCase(HEADER_ETAG, eTagBytes);
+        headers.putLowerCase(HEADER_LAST_MODIFIED, lastModifiedBytes);
+    }
+
+    /**
+     * Checks whether the client already has the current version of the file according to the
+     * conditional headers of the given request.
+     */
+    boolean isNotModified(@Nonnull HttpRequest request) {
+        final HttpHeaders headers = request.headers();
+
+        // If-Modified-Since is ignored if If-None-Match is present, see RFC 7232, section 3.3
+        final List<byte[]> ifNoneMatch = headers.getValues(HEADER_IF_NONE_MATCH);
+        if (!ifNoneMatch.isEmpty()) {
+            for (byte[] value : ifNoneMatch) {
+                if (value != null && matchesAny(new String(value, StandardCharsets.ISO_8859_1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final List<byte[]> ifModifiedSince = headers.getValues(HEADER_IF_MODIFIED_SINCE);
+        if (ifModifiedSince.size() == 1 && ifModifiedSince.get(0) != null) {
+            final String value = new String(ifModifiedSince.get(0), StandardCharsets.ISO_8859_1);
+            try {
+                return lastModifiedSecond <= HttpDate.parse(value);
+            } catch (DateTimeParseException e) {
+                return false;   // an invalid date should be ignored
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the Range header of the given request could be applied, namely the
+     * request has no If-Range header, or the file is still the one in the If-Range header.
+     */
+    boolean isRangeApplicable(@Nonnull HttpRequest request) {
+        final List<byte[]> ifRange = request.headers().getValues(HEADER_IF_RANGE);
+        if (ifRange.isEmpty()) {
+            return true;
+        } else if (ifRange.size() != 1 || ifRange.get(0) == null) {
+            return false;
+        }
+
+        final String value = new String(ifRange.get(0), StandardCharsets.ISO_8859_1).trim();
+        if (value.startsWith(WEAK_PREFIX)) {
+            return false;   // If-Range uses the strong comparison, a weak tag never matches
+        } else if (value.startsWith("\"")) {
+            return eTag.equals(value);
+        } else {
+            try {
+                return lastModifiedSecond == HttpDate.parse(value);
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+    }
+
+    private boolean matchesAny(String entityTags) {
+        for (String entityTag : entityTags.split(",")) {
+            entityTag = entityTag.trim();
+            if (ANY_ENTITY_TAG.equals(entityTag)) {
+                return true;
+            }
+
+            // uses the weak comparison
+            if (entityTag.startsWith(WEAK_PREFIX)) {
+                entityTag = entityTag.substring(WEAK_PREFIX.length());
+            }
+            if (eTag.equals(entityTag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
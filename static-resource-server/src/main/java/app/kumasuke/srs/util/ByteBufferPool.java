@@ -0,0 +1,82 @@
+package app.kumasuke.srs.util;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of fixed-size direct buffers, which are sliced from larger slabs of direct memory.
+ * <p>
+ * The pool is not thread-safe, it is meant to be owned by one io thread, and every buffer
+ * acquired from it should be released on the same thread.
+ */
+public class ByteBufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;    // 16 KiB
+
+    private static final int BUFFERS_PER_SLAB = 64;
+    private static final int DEFAULT_MAX_FREE_BUFFERS = 256;
+
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final int maxFreeBuffers;
+    private final Deque<ByteBuffer> freeBuffers;
+
+    public ByteBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_FREE_BUFFERS);
+    }
+
+    public ByteBufferPool(int bufferSize, int maxFreeBuffers) {
+        if (bufferSize <= 0 || maxFreeBuffers < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = Math.min(BUFFERS_PER_SLAB, maxFreeBuffers + 1);
+        this.maxFreeBuffers = maxFreeBuffers;
+        this.freeBuffers = new ArrayDeque<>();
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the count of the buffers which have been released and wait to be reused.
+     */
+    public int freeBufferCount() {
+        return freeBuffers.size();
+    }
+
+    /**
+     * Acquires a cleared buffer from this pool, whose reference count is 1.
+     */
+    @Nonnull
+    public PooledByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.pollFirst();
+        if (buffer == null) {
+            allocateSlab();
+            buffer = freeBuffers.pollFirst();
+        }
+
+        buffer.clear();
+        return new PooledByteBuffer(this, buffer);
+    }
+
+    void recycle(ByteBuffer buffer) {
+        // the buffers over the limit are left to the gc, the memory of a slab will be
+        // freed after all of its buffers are gone
+        if (freeBuffers.size() < maxFreeBuffers) {
+            freeBuffers.addFirst(buffer);   // the most recently used one is likely still in cache
+        }
+    }
+
+    private void allocateSlab() {
+        final ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * buffersPerSlab);
+        for (int i = 0; i < buffersPerSlab; i++) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            freeBuffers.addLast(slab.slice());
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 public class Config {
@@ -13,6 +14,36 @@ public class Config {
     public static final String CONF_DEFAULT_CHARSET = "server.defaultCharset";
     public static final String CONF_SERVER_HTTP_ROOT_DIRECTORY = "server.http.rootDirectory";
     public static final String CONF_SERVER_NAME = "server.name";
+    public static final String CONF_FILE_CACHE_MAX_SIZE = "server.http.fileCache.maxSize";
+    public static final String CONF_FILE_CACHE_MAX_FILE_SIZE = "server.http.fileCache.maxFileSize";
+    public static final String CONF_FILE_CACHE_REVALIDATE_INTERVAL = "server.http.fileCache.revalidateInterval";
+    public static final String CONF_COMPRESSION_CACHE_MAX_SIZE = "server.http.compression.cacheMaxSize";
+    public static final String CONF_COMPRESSION_MAX_FILE_SIZE = "server.http.compression.maxFileSize";
+    public static final String CONF_ACCEPTER_MODE = "server.accepter.mode";
+    public static final String CONF_WORKER_MODE = "server.worker.mode";
+    public static final String CONF_IO_BALANCE_STRATEGY = "server.io.balanceStrategy";
+    public static final String CONF_WORKER_QUEUE_CAPACITY = "server.worker.queueCapacity";
+    public static final String CONF_IO_THREAD_MAX_PENDING_REQUESTS = "server.io.maxPendingRequests";
+    public static final String CONF_CONNECTION_MAX_PENDING_REQUESTS = "server.connection.maxPendingRequests";
+    public static final String CONF_CONNECTION_IDLE_TIMEOUT = "server.connection.idleTimeout";
+    public static final String CONF_CONNECTION_WRITE_TIMEOUT = "server.connection.writeTimeout";
+    public static final String CONF_CONNECTION_HEADER_TIMEOUT = "server.connection.headerTimeout";
+    public static final String CONF_METRICS_PATH = "server.metrics.path";
+    public static final String CONF_METRICS_JMX_ENABLED = "server.metrics.jmxEnabled";
+
+    private static final long DEFAULT_FILE_CACHE_MAX_SIZE = 64 * 1024 * 1024;   // 64 MiB
+    private static final long DEFAULT_FILE_CACHE_MAX_FILE_SIZE = 1024 * 1024;   // 1 MiB
+    private static final long DEFAULT_FILE_CACHE_REVALIDATE_INTERVAL = 1000;    // 1 second
+    private static final long DEFAULT_COMPRESSION_CACHE_MAX_SIZE = 16 * 1024 * 1024;   // 16 MiB
+    private static final long DEFAULT_COMPRESSION_MAX_FILE_SIZE = 1024 * 1024;         // 1 MiB
+    private static final int DEFAULT_WORKER_QUEUE_CAPACITY = 4096;
+    private static final int DEFAULT_IO_THREAD_MAX_PENDING_REQUESTS = 1024;
+    private static final int DEFAULT_CONNECTION_MAX_PENDING_REQUESTS = 32;
+    private static final long DEFAULT_CONNECTION_IDLE_TIMEOUT = 60 * 1000;     // 1 minute
+    private static final long DEFAULT_CONNECTION_WRITE_TIMEOUT = 60 * 1000;    // 1 minute
+    private static final long DEFAULT_CONNECTION_HEADER_TIMEOUT = 10 * 1000;   // 10 seconds
+    private static final String DEFAULT_METRICS_PATH = "/__metrics";
+    private static final boolean DEFAULT_METRICS_JMX_ENABLED = true;
 
     private final Map<String, Object> config;
 
@@ -27,6 +58,14 @@ public class Config {
         loadServerDefaultCharset(config, properties);
         loadServerRootDirectory(config, properties);
         loadServerName(config, properties);
+        loadFileCache(config, properties);
+        loadCompression(config, properties);
+        loadAccepterMode(config, properties);
+        loadWorkerMode(config, properties);
+        loadIOBalanceStrategy(config, properties);
+        loadBackpressure(config, properties);
+        loadConnectionTimeouts(config, properties);
+        loadMetrics(config, properties);
 
         return Collections.unmodifiableMap(config);
     }
@@ -71,6 +110,170 @@ public class Config {
         }
     }
 
+    private void loadFileCache(Map<String, Object> config, Properties properties) {
+        // the file cache is disabled when its max size is 0
+        final long maxSize = parseNonNegativeLong(properties, CONF_FILE_CACHE_MAX_SIZE,
+                                                  DEFAULT_FILE_CACHE_MAX_SIZE);
+        config.put(CONF_FILE_CACHE_MAX_SIZE, maxSize);
+
+        final long maxFileSize = parseNonNegativeLong(properties, CONF_FILE_CACHE_MAX_FILE_SIZE,
+                                                      DEFAULT_FILE_CACHE_MAX_FILE_SIZE);
+        config.put(CONF_FILE_CACHE_MAX_FILE_SIZE, maxFileSize);
+
+        final long revalidateInterval = parseNonNegativeLong(properties, CONF_FILE_CACHE_REVALIDATE_INTERVAL,
+                                                             DEFAULT_FILE_CACHE_REVALIDATE_INTERVAL);
+        config.put(CONF_FILE_CACHE_REVALIDATE_INTERVAL, Duration.ofMillis(revalidateInterval));
+    }
+
+    private void loadCompression(Map<String, Object> config, Properties properties) {
+        // files are no longer compressed on the fly when the max size is 0, precompressed files are still served
+        final long cacheMaxSize = parseNonNegativeLong(properties, CONF_COMPRESSION_CACHE_MAX_SIZE,
+                                                       DEFAULT_COMPRESSION_CACHE_MAX_SIZE);
+        config.put(CONF_COMPRESSION_CACHE_MAX_SIZE, cacheMaxSize);
+
+        final long maxFileSize = parseNonNegativeLong(properties, CONF_COMPRESSION_MAX_FILE_SIZE,
+                                                      DEFAULT_COMPRESSION_MAX_FILE_SIZE);
+        config.put(CONF_COMPRESSION_MAX_FILE_SIZE, maxFileSize);
+    }
+
+    private void loadAccepterMode(Map<String, Object> config, Properties properties) {
+        final AccepterMode mode = parseEnum(properties, CONF_ACCEPTER_MODE, AccepterMode.class,
+                                            AccepterMode.THREAD);
+        config.put(CONF_ACCEPTER_MODE, mode);
+    }
+
+    private void loadWorkerMode(Map<String, Object> config, Properties properties) {
+        final WorkerMode mode = parseEnum(properties, CONF_WORKER_MODE, WorkerMode.class, WorkerMode.POOL);
+        config.put(CONF_WORKER_MODE, mode);
+    }
+
+    private void loadIOBalanceStrategy(Map<String, Object> config, Properties properties) {
+        final BalanceStrategy strategy = parseEnum(properties, CONF_IO_BALANCE_STRATEGY, BalanceStrategy.class,
+                                                   BalanceStrategy.LEAST_CONNECTIONS);
+        config.put(CONF_IO_BALANCE_STRATEGY, strategy);
+    }
+
+    private void loadBackpressure(Map<String, Object> config, Properties properties) {
+        // the tasks waiting for a worker thread, requests are rejected when the queue is full
+        final int queueCapacity = parsePositiveInt(properties, CONF_WORKER_QUEUE_CAPACITY,
+                                                   DEFAULT_WORKER_QUEUE_CAPACITY);
+        config.put(CONF_WORKER_QUEUE_CAPACITY, queueCapacity);
+
+        // the requests being processed for the connections of an io thread
+        final int ioThreadMaxPending = parsePositiveInt(properties, CONF_IO_THREAD_MAX_PENDING_REQUESTS,
+                                                        DEFAULT_IO_THREAD_MAX_PENDING_REQUESTS);
+        config.put(CONF_IO_THREAD_MAX_PENDING_REQUESTS, ioThreadMaxPending);
+
+        // the requests of a connection which are being processed or wait for an earlier one to be, it will not
+        // be read until some of them are answered
+        final int connectionMaxPending = parsePositiveInt(properties, CONF_CONNECTION_MAX_PENDING_REQUESTS,
+                                                          DEFAULT_CONNECTION_MAX_PENDING_REQUESTS);
+        config.put(CONF_CONNECTION_MAX_PENDING_REQUESTS, connectionMaxPending);
+    }
+
+    private void loadConnectionTimeouts(Map<String, Object> config, Properties properties) {
+        // a timeout is disabled when it is 0
+
+        // neither reads nor writes happen on a connection without pending requests
+        final long idleTimeout = parseNonNegativeLong(properties, CONF_CONNECTION_IDLE_TIMEOUT,
+                                                      DEFAULT_CONNECTION_IDLE_TIMEOUT);
+        config.put(CONF_CONNECTION_IDLE_TIMEOUT, Duration.ofMillis(idleTimeout));
+
+        // no bytes of pending responses could be written to a connection
+        final long writeTimeout = parseNonNegativeLong(properties, CONF_CONNECTION_WRITE_TIMEOUT,
+                                                       DEFAULT_CONNECTION_WRITE_TIMEOUT);
+        config.put(CONF_CONNECTION_WRITE_TIMEOUT, Duration.ofMillis(writeTimeout));
+
+        // a request is not completely received since its first bytes arrived
+        final long headerTimeout = parseNonNegativeLong(properties, CONF_CONNECTION_HEADER_TIMEOUT,
+                                                        DEFAULT_CONNECTION_HEADER_TIMEOUT);
+        config.put(CONF_CONNECTION_HEADER_TIMEOUT, Duration.ofMillis(headerTimeout));
+    }
+
+    private void loadMetrics(Map<String, Object> config, Properties properties) {
+        // the metrics are no longer served by the server itself when the path is empty
+        final String path = properties.getProperty(CONF_METRICS_PATH, DEFAULT_METRICS_PATH).trim();
+        if (path.isEmpty() || path.startsWith("/")) {
+            config.put(CONF_METRICS_PATH, path);
+        } else {
+            throw new IllegalArgumentException("'" + CONF_METRICS_PATH + "' must start with '/'");
+        }
+
+        final boolean jmxEnabled = parseBoolean(properties, CONF_METRICS_JMX_ENABLED, DEFAULT_METRICS_JMX_ENABLED);
+        config.put(CONF_METRICS_JMX_ENABLED, jmxEnabled);
+    }
+
+    private boolean parseBoolean(Properties properties, String name, boolean defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(trimmed)) {
+            return false;
+        } else {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'");
+        }
+    }
+
+    private <E extends Enum<E>> E parseEnum(Properties properties, String name, Class<E> enumClass,
+                                            E defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            // accepts both 'least_connections' and 'least-connections'
+            return Enum.valueOf(enumClass, value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+    }
+
+    private int parsePositiveInt(Properties properties, String name, int defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final int result;
+        try {
+            result = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+
+        if (result <= 0) {
+            throw new IllegalArgumentException("'" + name + "' must be positive");
+        } else {
+            return result;
+        }
+    }
+
+    private long parseNonNegativeLong(Properties properties, String name, long defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final long result;
+        try {
+            result = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot parse '" + name + "'", e);
+        }
+
+        if (result < 0) {
+            throw new IllegalArgumentException("'" + name + "' cannot be negative");
+        } else {
+            return result;
+        }
+    }
+
     public int getServerPort() {
         return (int) config.get(CONF_SERVER_PORT);
     }
@@ -93,6 +296,73 @@ public class Config {
         return serverName.substring(0, endPos);
     }
 
+    public long getFileCacheMaxSize() {
+        return (long) config.get(CONF_FILE_CACHE_MAX_SIZE);
+    }
+
+    public long getFileCacheMaxFileSize() {
+        return (long) config.get(CONF_FILE_CACHE_MAX_FILE_SIZE);
+    }
+
+    public Duration getFileCacheRevalidateInterval() {
+        return (Duration) config.get(CONF_FILE_CACHE_REVALIDATE_INTERVAL);
+    }
+
+    public long getCompressionCacheMaxSize() {
+        return (long) config.get(CONF_COMPRESSION_CACHE_MAX_SIZE);
+    }
+
+    public long getCompressionMaxFileSize() {
+        return (long) config.get(CONF_COMPRESSION_MAX_FILE_SIZE);
+    }
+
+    public AccepterMode getAccepterMode() {
+        return (AccepterMode) config.get(CONF_ACCEPTER_MODE);
+    }
+
+    public WorkerMode getWorkerMode() {
+        return (WorkerMode) config.get(CONF_WORKER_MODE);
+    }
+
+    public BalanceStrategy getIOBalanceStrategy() {
+        return (BalanceStrategy) config.get(CONF_IO_BALANCE_STRATEGY);
+    }
+
+    public int getWorkerQueueCapacity() {
+        return (int) config.get(CONF_WORKER_QUEUE_CAPACITY);
+    }
+
+    public int getIOThreadMaxPendingRequests() {
+        return (int) config.get(CONF_IO_THREAD_MAX_PENDING_REQUESTS);
+    }
+
+    public int getConnectionMaxPendingRequests() {
+        return (int) config.get(CONF_CONNECTION_MAX_PENDING_REQUESTS);
+    }
+
+    public Duration getConnectionIdleTimeout() {
+        return (Duration) config.get(CONF_CONNECTION_IDLE_TIMEOUT);
+    }
+
+    public Duration getConnectionWriteTimeout() {
+        return (Duration) config.get(CONF_CONNECTION_WRITE_TIMEOUT);
+    }
+
+    public Duration getConnectionHeaderTimeout() {
+        return (Duration) config.get(CONF_CONNECTION_HEADER_TIMEOUT);
+    }
+
+    /**
+     * Returns the path where the metrics are served, or an empty string if they are not served.
+     */
+    public String getMetricsPath() {
+        return (String) config.get(CONF_METRICS_PATH);
+    }
+
+    public boolean isMetricsJmxEnabled() {
+        return (boolean) config.get(CONF_METRICS_JMX_ENABLED);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -105,4 +375,65 @@ public class Config {
     public int hashCode() {
         return Objects.hash(config);
     }
+
+    /**
+     * How the connections are accepted and handed to the io threads.
+     */
+    public enum AccepterMode {
+        /**
+         * Accepts connections on a dedicated thread, which hands them to the io threads.
+         */
+        THREAD,
+        /**
+         * Every io thread accepts connections from the shared server socket with its own selector.
+         */
+        SELECTOR,
+        /**
+         * Every io thread accepts connections from its own server socket bound with SO_REUSEPORT,
+         * falls back to {@link #SELECTOR} if the option is not supported.
+         */
+        REUSEPORT
+    }
+
+    /**
+     * How a new connection is assigned to one of the io threads.
+     * <p>
+     * When the io threads accept connections themselves, the strategies comparing loads keep
+     * a connection on the io thread which accepted it unless another one is strictly less
+     * loaded, as handing it over takes a cross-thread queue and a wakeup.
+     */
+    public enum BalanceStrategy {
+        /**
+         * Assigns by the connection id modulo the number of io threads.
+         */
+        MODULO,
+        /**
+         * Assigns to the io thread with the fewest open connections.
+         */
+        LEAST_CONNECTIONS,
+        /**
+         * Assigns to the io thread with the fewest bytes waiting to be written.
+         */
+        LEAST_PENDING_BYTES,
+        /**
+         * Assigns to the one with fewer open connections of two randomly chosen io threads, one
+         * of which is the accepting io thread if there is one.
+         */
+        TWO_CHOICES
+    }
+
+    /**
+     * How the requests are processed off the io threads.
+     */
+    public enum WorkerMode {
+        /**
+         * Processes requests on a bounded pool of platform threads.
+         */
+        POOL,
+        /**
+         * Processes each request on its own virtual thread, falls back to {@link #POOL} if the
+         * running jvm does not support virtual threads.
+         */
+        VIRTUAL
+    }
 }
@@ -116,7 +116,9 @@ public class DynamicByteBuffer {
     }
 
     public void clear() {
-        initializeBlocks(INITIAL_BLOCK_COUNT * BLOCK_BYTE_COUNT);
+        // keeps the allocated blocks, they will be reused by the following appends
+        beginCursor = 0;
+        endCursor = 0;
     }
 
     public byte[] toByteArray() {
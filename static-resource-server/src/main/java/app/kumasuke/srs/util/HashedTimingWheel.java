@@ -0,0 +1,210 @@
+package app.kumasuke.srs.util;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel, which schedules and cancels a timeout in O(1) time at the cost of
+ * expiring it up to one tick late.
+ * <p>
+ * The wheel has no clock or thread of its own, the times passed to it are the milliseconds of
+ * any monotonic clock. It is not thread-safe, it is meant to be owned and driven by one thread.
+ */
+public class HashedTimingWheel<T> {
+    private final long tickDuration;
+    private final long startTime;
+    private final Bucket<T>[] buckets;
+    private final int mask;
+
+    private long tick;  // the next tick to be expired
+    private int size;
+
+    /**
+     * @param tickDuration  the milliseconds covered by a tick
+     * @param ticksPerWheel the number of ticks of a round, which is rounded up to a power of 2
+     * @param startTime     the time at which the first tick starts
+     */
+    public HashedTimingWheel(long tickDuration, int ticksPerWheel, long startTime) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException();
+        }
+
+        final int wheelSize = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.tickDuration = tickDuration;
+        this.startTime = startTime;
+        this.buckets = newBuckets(Math.max(wheelSize, 1));
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket<>();
+        }
+        this.mask = buckets.length - 1;
+        this.tick = 0;
+        this.size = 0;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Bucket<T>[] newBuckets(int length) {
+        return new Bucket[length];
+    }
+
+    /**
+     * Schedules the given target to be expired at the given deadline, a deadline which has
+     * passed will be expired at the next call of {@link #expire(long, Consumer)}.
+     */
+    @Nonnull
+    public Timeout<T> schedule(@Nonnull T target, long deadline) {
+        final long deadlineTick = Math.max(Math.max(deadline - startTime, 0) / tickDuration, tick);
+
+        final var timeout = new Timeout<>(this, target, deadline);
+        timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+        buckets[(int) (deadlineTick & mask)].add(timeout);
+        size++;
+
+        return timeout;
+    }
+
+    /**
+     * Expires the timeouts whose ticks have elapsed at the given time, the given handler is
+     * invoked after all of them have been removed, so it could schedule timeouts again.
+     *
+     * @return the number of expired timeouts
+     */
+    public int expire(long now, @Nonnull Consumer<? super T> handler) {
+        if (size == 0) {
+            // jumps over the empty ticks at once
+            tick = Math.max(tick, Math.max(now - startTime, 0) / tickDuration);
+            return 0;
+        }
+
+        List<Timeout<T>> expired = null;
+        while (now >= tickEndTime(tick) && size > 0) {
+            final Bucket<T> bucket = buckets[(int) (tick & mask)];
+            for (Timeout<T> timeout = bucket.head; timeout != null; ) {
+                final Timeout<T> next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    bucket.remove(timeout);
+                    size--;
+                    timeout.expired = true;
+
+                    if (expired == null) expired = new ArrayList<>();
+                    expired.add(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+        }
+
+        if (expired == null) {
+            return 0;
+        }
+        for (Timeout<T> timeout : expired) {
+            handler.accept(timeout.target);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Returns the time at which the next tick elapses, namely the latest time the owner thread
+     * should call {@link #expire(long, Consumer)} if this wheel is not empty.
+     */
+    public long nextTickTime() {
+        return tickEndTime(tick);
+    }
+
+    private long tickEndTime(long tick) {
+        return startTime + (tick + 1) * tickDuration;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public static class Timeout<T> {
+        private final HashedTimingWheel<T> wheel;
+        private final T target;
+        private final long deadline;
+
+        private Bucket<T> bucket;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private long remainingRounds;
+        private boolean expired;
+
+        private Timeout(HashedTimingWheel<T> wheel, T target, long deadline) {
+            this.wheel = wheel;
+            this.target = target;
+            this.deadline = deadline;
+        }
+
+        @Nonnull
+        public T target() {
+            return target;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        public boolean isCancelled() {
+            return bucket == null && !expired;
+        }
+
+        /**
+         * Cancels this timeout, which does nothing if it has been expired or cancelled.
+         *
+         * @return {@code true} if this timeout is cancelled by this call
+         */
+        public boolean cancel() {
+            if (bucket == null) {
+                return false;
+            }
+
+            bucket.remove(this);
+            wheel.size--;
+            return true;
+        }
+    }
+
+    private static class Bucket<T> {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout<T> timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package app.kumasuke.srs.util;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in microseconds. The buckets
+ * grow exponentially and each of them is divided into 16 linear sub-buckets, so that a value
+ * is reported with a relative error of at most 1/16, as what HdrHistogram does with one
+ * significant digit. Values of {@code 2^32} and above are recorded as the largest value.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 32;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        final long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(clamped));
+        max.accumulate(clamped);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // the highest bit selects the bucket, the next bits select the sub-bucket
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Takes a snapshot of the recorded values, the values recorded meanwhile may or may not be
+     * included.
+     */
+    @Nonnull
+    public Snapshot snapshot() {
+        final var snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+            sum += (double) snapshotCounts[i] * highestValueOf(i);
+        }
+
+        return new Snapshot(snapshotCounts, count, count == 0 ? 0 : sum / count, max.get());
+    }
+
+    /**
+     * An immutable view of a {@link LatencyHistogram}, whose getters could be exposed through JMX.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final double mean;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, double mean, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+        }
+
+        /**
+         * Returns the smallest value that the given fraction of the recorded values do not
+         * exceed, or {@code 0} if nothing has been recorded.
+         */
+        public long valueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return valueAt(0.5);
+        }
+
+        public long getP90() {
+            return valueAt(0.9);
+        }
+
+        public long getP99() {
+            return valueAt(0.99);
+        }
+
+        public long getP999() {
+            return valueAt(0.999);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package app.kumasuke.srs.util;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/**
+ * A reference-counted buffer acquired from a {@link ByteBufferPool}, the underlying buffer
+ * goes back to the pool once the count drops to zero and must not be used afterwards.
+ */
+public class PooledByteBuffer {
+    private final ByteBufferPool pool;
+    private final ByteBuffer buffer;
+
+    private int refCount;
+
+    PooledByteBuffer(@Nonnull ByteBufferPool pool, @Nonnull ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.refCount = 1;
+    }
+
+    @Nonnull
+    public ByteBuffer buffer() {
+        ensureAccessible();
+        return buffer;
+    }
+
+    public int refCount() {
+        return refCount;
+    }
+
+    @Nonnull
+    public PooledByteBuffer retain() {
+        ensureAccessible();
+        refCount++;
+        return this;
+    }
+
+    /**
+     * Decreases the reference count by 1, and returns the buffer to its pool when the count
+     * drops to zero.
+     *
+     * @return {@code true} if the buffer has been returned to its pool
+     */
+    public boolean release() {
+        ensureAccessible();
+        if (--refCount == 0) {
+            pool.recycle(buffer);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void ensureAccessible() {
+        if (refCount <= 0) {
+            throw new IllegalStateException("buffer has been released");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package app.kumasuke.srs.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// lives in the package of the cache, which is not visible outside of it
+class HttpFileCacheTest {
+    private Path file;
+
+    @BeforeEach
+    void init() throws IOException {
+        file = Files.createTempFile("srs-file-cache", ".txt");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void cache() throws IOException {
+        final byte[] bytes = newBytes(4096);
+        Files.write(file, bytes);
+
+        final var cache = new HttpFileCache(1024 * 1024, 1024 * 1024, Duration.ofHours(1));
+        final HttpFileCache.CachedFile cached = cache.cache("/a.txt", file, "text/plain");
+        assertEquals(bytes.length, cached.size());
+        assertArrayEquals(bytes, toBytes(cached.content()));
+        assertSame(cached, cache.get("/a.txt"));
+    }
+
+    @Test
+    void cacheLargeFileWithoutContent() throws IOException {
+        Files.write(file, newBytes(4096));
+
+        final var cache = new HttpFileCache(1024 * 1024, 1024, Duration.ofHours(1));
+        final HttpFileCache.CachedFile cached = cache.cache("/a.txt", file, "text/plain");
+        assertEquals(4096, cached.size());
+        assertNull(cached.content());
+    }
+
+    @Test
+    void readTruncatedFile() throws IOException {
+        final byte[] bytes = newBytes(64 * 1024);
+        Files.write(file, bytes);
+
+        final var cache = new HttpFileCache(1024 * 1024, 1024 * 1024, Duration.ZERO);
+        final HttpFileCache.CachedFile cached = cache.cache("/a.txt", file, "text/plain");
+        try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            fileChannel.truncate(0);
+        }
+
+        // the content cached before is still readable, and the entry is evicted once revalidated
+        assertArrayEquals(bytes, toBytes(cached.content()));
+        assertNull(cache.get("/a.txt"));
+    }
+
+    private static byte[] newBytes(int length) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) 'a');
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,42 @@
+package app.kumasuke.test.srs;
+
+import app.kumasuke.srs.Server;
+import app.kumasuke.srs.protocol.HttpProtocolFactory;
+import app.kumasuke.srs.util.Config;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ServerTest {
+    @Test
+    void startOnBoundPort() throws IOException {
+        startOnBoundPort(Config.AccepterMode.THREAD);
+    }
+
+    @Test
+    void startOnBoundPortWithSelectors() throws IOException {
+        startOnBoundPort(Config.AccepterMode.SELECTOR);
+    }
+
+    private void startOnBoundPort(Config.AccepterMode accepterMode) throws IOException {
+        try (final var occupied = new ServerSocket()) {
+            occupied.bind(new InetSocketAddress(0));
+
+            final var properties = new Properties();
+            properties.put(Config.CONF_SERVER_NAME, "K9MAServer/1.0");
+            properties.put(Config.CONF_SERVER_HTTP_ROOT_DIRECTORY, System.getProperty("java.io.tmpdir"));
+            properties.put(Config.CONF_SERVER_PORT, Integer.toString(occupied.getLocalPort()));
+            properties.put(Config.CONF_DEFAULT_CHARSET, "UTF-8");
+            properties.put(Config.CONF_ACCEPTER_MODE, accepterMode.name());
+            final var server = new Server(new Config(properties), new HttpProtocolFactory());
+
+            assertThrows(IllegalStateException.class, server::start);
+            server.stop();  // does nothing as the server has not been started
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package app.kumasuke.test.srs.util;
+
+import app.kumasuke.srs.util.ByteBufferPool;
+import app.kumasuke.srs.util.PooledByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBufferPoolTest {
+    @Test
+    void acquire() {
+        final var pool = new ByteBufferPool(1024, 4);
+        final PooledByteBuffer pooled = pool.acquire();
+        final ByteBuffer buffer = pooled.buffer();
+
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(1024, buffer.limit());
+        assertEquals(1, pooled.refCount());
+    }
+
+    @Test
+    void buffersDoNotOverlap() {
+        final var pool = new ByteBufferPool(16, 4);
+        final ByteBuffer first = pool.acquire().buffer();
+        final ByteBuffer second = pool.acquire().buffer();
+
+        while (first.hasRemaining()) first.put((byte) 1);
+        while (second.hasRemaining()) second.put((byte) 2);
+
+        for (int i = 0; i < 16; i++) {
+            assertEquals(1, first.get(i));
+            assertEquals(2, second.get(i));
+        }
+    }
+
+    @Test
+    void releaseAndReuse() {
+        final var pool = new ByteBufferPool(1024, 128);
+        final PooledByteBuffer pooled = pool.acquire();
+        final int freeCount = pool.freeBufferCount();
+
+        final ByteBuffer buffer = pooled.buffer();
+        buffer.put((byte) 1);
+        assertTrue(pooled.release());
+        assertEquals(freeCount + 1, pool.freeBufferCount());
+
+        final PooledByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused.buffer());
+        assertEquals(0, reused.buffer().position());
+    }
+
+    @Test
+    void retain() {
+        final var pool = new ByteBufferPool();
+        final PooledByteBuffer pooled = pool.acquire();
+
+        assertSame(pooled, pooled.retain());
+        assertEquals(2, pooled.refCount());
+        assertFalse(pooled.release());
+        assertEquals(1, pooled.refCount());
+        assertTrue(pooled.release());
+        assertEquals(0, pooled.refCount());
+    }
+
+    @Test
+    void useAfterRelease() {
+        final var pool = new ByteBufferPool();
+        final PooledByteBuffer pooled = pool.acquire();
+        pooled.release();
+
+        assertThrows(IllegalStateException.class, pooled::buffer);
+        assertThrows(IllegalStateException.class, pooled::retain);
+        assertThrows(IllegalStateException.class, pooled::release);
+    }
+
+    @Test
+    void maxFreeBuffers() {
+        final var pool = new ByteBufferPool(16, 0);
+        assertTrue(pool.acquire().release());
+        assertEquals(0, pool.freeBufferCount());
+
+        assertThrows(IllegalArgumentException.class, () -> new ByteBufferPool(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ByteBufferPool(16, -1));
+    }
+}
@@ -6,9 +6,11 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ConfigTest {
     private static Config config;
@@ -47,4 +49,84 @@ class ConfigTest {
     void getServerNameWithoutVersion() {
         assertEquals("K9MAServer", config.getServerNameWithoutVersion());
     }
+
+    @Test
+    void getFileCacheMaxSize() {
+        assertEquals(64 * 1024 * 1024, config.getFileCacheMaxSize());
+    }
+
+    @Test
+    void getFileCacheMaxFileSize() {
+        assertEquals(1024 * 1024, config.getFileCacheMaxFileSize());
+    }
+
+    @Test
+    void getFileCacheRevalidateInterval() {
+        assertEquals(Duration.ofSeconds(1), config.getFileCacheRevalidateInterval());
+    }
+
+    @Test
+    void getCompressionCacheMaxSize() {
+        assertEquals(16 * 1024 * 1024, config.getCompressionCacheMaxSize());
+    }
+
+    @Test
+    void getCompressionMaxFileSize() {
+        assertEquals(1024 * 1024, config.getCompressionMaxFileSize());
+    }
+
+    @Test
+    void getAccepterMode() {
+        assertEquals(Config.AccepterMode.THREAD, config.getAccepterMode());
+    }
+
+    @Test
+    void getWorkerMode() {
+        assertEquals(Config.WorkerMode.POOL, config.getWorkerMode());
+    }
+
+    @Test
+    void getIOBalanceStrategy() {
+        assertEquals(Config.BalanceStrategy.LEAST_CONNECTIONS, config.getIOBalanceStrategy());
+    }
+
+    @Test
+    void getWorkerQueueCapacity() {
+        assertEquals(4096, config.getWorkerQueueCapacity());
+    }
+
+    @Test
+    void getIOThreadMaxPendingRequests() {
+        assertEquals(1024, config.getIOThreadMaxPendingRequests());
+    }
+
+    @Test
+    void getConnectionMaxPendingRequests() {
+        assertEquals(32, config.getConnectionMaxPendingRequests());
+    }
+
+    @Test
+    void getConnectionIdleTimeout() {
+        assertEquals(Duration.ofMinutes(1), config.getConnectionIdleTimeout());
+    }
+
+    @Test
+    void getConnectionWriteTimeout() {
+        assertEquals(Duration.ofMinutes(1), config.getConnectionWriteTimeout());
+    }
+
+    @Test
+    void getConnectionHeaderTimeout() {
+        assertEquals(Duration.ofSeconds(10), config.getConnectionHeaderTimeout());
+    }
+
+    @Test
+    void getMetricsPath() {
+        assertEquals("/__metrics", config.getMetricsPath());
+    }
+
+    @Test
+    void isMetricsJmxEnabled() {
+        assertTrue(config.isMetricsJmxEnabled());
+    }
 }
@@ -0,0 +1,106 @@
+package app.kumasuke.test.srs.util;
+
+import app.kumasuke.srs.util.HashedTimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedTimingWheelTest {
+    @Test
+    void expire() {
+        final var wheel = new HashedTimingWheel<String>(10, 8, 0);
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 5);
+        assertEquals(2, wheel.size());
+
+        final List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.expire(9, expired::add));
+        assertEquals(1, wheel.expire(10, expired::add));
+        assertEquals(List.of("b"), expired);
+
+        assertEquals(1, wheel.expire(30, expired::add));
+        assertEquals(List.of("b", "a"), expired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    void expireAfterRounds() {
+        final var wheel = new HashedTimingWheel<String>(10, 4, 0);
+        final HashedTimingWheel.Timeout<String> timeout = wheel.schedule("a", 105);
+
+        final List<String> expired = new ArrayList<>();
+        wheel.expire(100, expired::add);
+        assertTrue(expired.isEmpty());
+        assertFalse(timeout.isExpired());
+
+        wheel.expire(110, expired::add);
+        assertEquals(List.of("a"), expired);
+        assertTrue(timeout.isExpired());
+    }
+
+    @Test
+    void expirePassedDeadline() {
+        final var wheel = new HashedTimingWheel<String>(10, 8, 0);
+        wheel.expire(100, s -> fail("unexpected expiry: " + s));
+        wheel.schedule("a", 50);
+
+        final List<String> expired = new ArrayList<>();
+        wheel.expire(110, expired::add);
+        assertEquals(List.of("a"), expired);
+    }
+
+    @Test
+    void cancel() {
+        final var wheel = new HashedTimingWheel<String>(10, 8, 0);
+        final HashedTimingWheel.Timeout<String> a = wheel.schedule("a", 15);
+        final HashedTimingWheel.Timeout<String> b = wheel.schedule("b", 15);
+        final HashedTimingWheel.Timeout<String> c = wheel.schedule("c", 15);
+
+        assertTrue(b.cancel());
+        assertFalse(b.cancel());
+        assertTrue(b.isCancelled());
+        assertEquals(2, wheel.size());
+
+        final List<String> expired = new ArrayList<>();
+        wheel.expire(20, expired::add);
+        assertEquals(List.of("a", "c"), expired);
+        assertFalse(a.cancel());
+        assertFalse(c.isCancelled());
+    }
+
+    @Test
+    void rescheduleInHandler() {
+        final var wheel = new HashedTimingWheel<String>(10, 8, 0);
+        wheel.schedule("a", 5);
+
+        final List<String> expired = new ArrayList<>();
+        wheel.expire(10, s -> {
+            expired.add(s);
+            wheel.schedule(s, 5);  // has passed, expires at the next call
+        });
+        assertEquals(List.of("a"), expired);
+        assertEquals(1, wheel.size());
+
+        wheel.expire(20, expired::add);
+        assertEquals(List.of("a", "a"), expired);
+    }
+
+    @Test
+    void nextTickTime() {
+        final var wheel = new HashedTimingWheel<String>(10, 8, 100);
+        assertEquals(110, wheel.nextTickTime());
+
+        wheel.schedule("a", 135);
+        wheel.expire(125, s -> fail("unexpected expiry: " + s));
+        assertEquals(130, wheel.nextTickTime());
+    }
+
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<>(0, 8, 0));
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<>(10, 0, 0));
+    }
+}
@@ -0,0 +1,66 @@
+package app.kumasuke.test.srs.util;
+
+import app.kumasuke.srs.util.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    @Test
+    void empty() {
+        final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getP99());
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        final var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.getCount());
+        assertEquals(5.5, snapshot.getMean(), 0.001);
+        assertEquals(5, snapshot.getP50());
+        assertEquals(9, snapshot.getP90());
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    void valueAt() {
+        final var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100_000; i++) {
+            histogram.record(i);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertWithin(50_000, snapshot.getP50());
+        assertWithin(99_000, snapshot.getP99());
+        assertWithin(99_900, snapshot.getP999());
+        assertEquals(100_000, snapshot.valueAt(1));
+        assertEquals(100_000, snapshot.getMax());
+    }
+
+    @Test
+    void outOfRange() {
+        final var histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getP50());
+        assertEquals((1L << 32) - 1, snapshot.getMax());
+        assertEquals((1L << 32) - 1, snapshot.valueAt(1));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // a value is reported no less than itself, and within 1/16 of itself
+        assertTrue(actual >= expected && actual <= expected + expected / 16,
+                   "expected about " + expected + " but was " + actual);
+    }
+}